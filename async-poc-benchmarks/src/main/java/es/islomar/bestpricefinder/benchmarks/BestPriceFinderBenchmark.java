@@ -0,0 +1,118 @@
+package es.islomar.bestpricefinder.benchmarks;
+
+import static java.util.stream.Collectors.toList;
+
+import es.islomar.bestpricefinder.BestPriceFinder;
+import es.islomar.bestpricefinder.ShopService;
+import es.islomar.bestpricefinder.model.Shop;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the fan-out strategies of {@link BestPriceFinder}. Throughput gives ops/s, SampleTime
+ * gives the latency percentiles (p50, p90, p99...) of a single query.
+ *
+ * <p>Every operation waits for at least one simulated shop call (500-1000 msecs), so iterations
+ * are long and few.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BestPriceFinderBenchmark {
+
+  private static final String ANY_PRODUCT = "myPhone";
+  private static final String[] SHOP_NAMES = {
+    "BestPrices", "LetsSaveBig", "MyFavoriteShop", "BuyItAll"
+  };
+
+  @Param({"16", "64"})
+  public int shopCount;
+
+  @Param({"FIXED", "RANDOM"})
+  public String delayMode;
+
+  // Size of the Executor used by the *Executor and discount strategies, and parallelism of the
+  // ForkJoinPool running the parallel stream
+  @Param({"16", "100"})
+  public int threadCount;
+
+  private BestPriceFinder bestPriceFinder;
+  private ExecutorService executor;
+  private ForkJoinPool forkJoinPool;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    boolean isRandomDelay = "RANDOM".equals(this.delayMode);
+    List<Shop> shops =
+        IntStream.range(0, this.shopCount)
+            .mapToObj(i -> new Shop(SHOP_NAMES[i % SHOP_NAMES.length] + i))
+            .collect(toList());
+    this.executor =
+        Executors.newFixedThreadPool(
+            this.threadCount,
+            r -> {
+              Thread t = new Thread(r);
+              t.setDaemon(true);
+              return t;
+            });
+    this.forkJoinPool = new ForkJoinPool(this.threadCount);
+    this.bestPriceFinder =
+        new BestPriceFinder(shops, new ShopService(isRandomDelay), this.executor, isRandomDelay);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    this.executor.shutdownNow();
+    this.forkJoinPool.shutdownNow();
+  }
+
+  @Benchmark
+  public List<String> findPricesSequential() {
+    return this.bestPriceFinder.findPricesSequential(ANY_PRODUCT);
+  }
+
+  // A parallel stream started from inside a ForkJoinPool runs in that pool, not in the common one
+  @Benchmark
+  public List<String> findPricesWithParallel() {
+    return this.forkJoinPool
+        .submit(() -> this.bestPriceFinder.findPricesWithParallel(ANY_PRODUCT))
+        .join();
+  }
+
+  // supplyAsync() without Executor always uses the common pool: threadCount does not apply here,
+  // use -Djava.util.concurrent.ForkJoinPool.common.parallelism=N (jvmArgsAppend) to change it
+  @Benchmark
+  public List<String> findPricesWithStreamsAndAsync() {
+    return this.bestPriceFinder.findPricesWithStreamsAndAsync(ANY_PRODUCT);
+  }
+
+  @Benchmark
+  public List<String> findPricesWithStreamsAndAsyncAndExecutor() {
+    return this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT);
+  }
+
+  @Benchmark
+  public List<String> asyncFindPricesWithDiscounts() {
+    return this.bestPriceFinder.asyncFindPricesWithDiscounts(ANY_PRODUCT);
+  }
+}
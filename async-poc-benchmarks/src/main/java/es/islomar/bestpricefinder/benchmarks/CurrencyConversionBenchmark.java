@@ -0,0 +1,90 @@
+package es.islomar.bestpricefinder.benchmarks;
+
+import static java.util.stream.Collectors.toList;
+
+import es.islomar.bestpricefinder.CurrencyConverter;
+import es.islomar.bestpricefinder.model.Money;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts the prices of priceCount shops from EUR to USD: one boxed price at a time with its own
+ * rate (as futurePriceInUSD() does, without the simulated delay of ExchangeService), against the
+ * bulk conversions of {@link CurrencyConverter}.
+ *
+ * <p>Add {@code -jvmArgsAppend -XX:-UseSuperWord} to see how much of the gain comes from the SIMD
+ * instructions C2 generates for the bulk loops.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CurrencyConversionBenchmark {
+
+  @Param({"16", "1024", "65536"})
+  public int priceCount;
+
+  private final CurrencyConverter converter = new CurrencyConverter();
+  private double[] prices;
+  private List<Double> boxedPrices;
+  private Money[] currencies;
+  private double[] converted;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(42);
+    this.prices = random.doubles(this.priceCount, 1, 1_000).toArray();
+    this.boxedPrices = Arrays.stream(this.prices).boxed().collect(toList());
+    this.currencies =
+        random
+            .ints(this.priceCount, 0, Money.values().length)
+            .mapToObj(ordinal -> Money.values()[ordinal])
+            .toArray(Money[]::new);
+    this.converted = new double[this.priceCount];
+  }
+
+  @Benchmark
+  public List<Double> perPrice() {
+    return this.boxedPrices.stream()
+        .map(price -> price * (Money.USD.getRate() / Money.EUR.getRate()))
+        .collect(toList());
+  }
+
+  @Benchmark
+  public double[] bulk() {
+    return this.converter.convert(this.prices, Money.EUR, Money.USD);
+  }
+
+  // Without allocation: what is left is the loop itself
+  @Benchmark
+  public double[] bulkIntoExistingArray() {
+    this.converter.convert(this.prices, Money.EUR, Money.USD, this.converted);
+    return this.converted;
+  }
+
+  @Benchmark
+  public double[] bulkFromMixedCurrencies() {
+    return this.converter.convert(this.prices, this.currencies, Money.USD);
+  }
+
+  @Benchmark
+  public double[][] bulkToEveryCurrency() {
+    return this.converter.convertToAll(this.prices, Money.EUR);
+  }
+}
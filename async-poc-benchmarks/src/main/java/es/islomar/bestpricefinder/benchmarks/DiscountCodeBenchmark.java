@@ -0,0 +1,67 @@
+package es.islomar.bestpricefinder.benchmarks;
+
+import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.Shop;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Draws discount codes of the same shop from several threads at once. The shared Random (the old
+ * Shop.getDiscountCode()) is a single seed all the threads fight for, so its ops/s do not grow
+ * with the threads; {@link Shop#discountCodeFor(long)} should scale linearly.
+ *
+ * <p>Run one subclass per thread count, e.g. {@code java -jar target/benchmarks.jar
+ * DiscountCodeBenchmark}. Scaling only shows with as many cores as threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class DiscountCodeBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class SharedShop {
+
+    private final Shop shop = new Shop("BestPrices");
+    private final Random random = new Random(42);
+  }
+
+  @State(Scope.Thread)
+  public static class Requests {
+
+    private long nextRequestId = Thread.currentThread().getId() << 32;
+  }
+
+  @Benchmark
+  public DiscountCode sharedRandom(SharedShop sharedShop) {
+    return DiscountCode.values()[sharedShop.random.nextInt(DiscountCode.values().length)];
+  }
+
+  @Benchmark
+  public DiscountCode discountCodeForRequest(SharedShop sharedShop, Requests requests) {
+    return sharedShop.shop.discountCodeFor(requests.nextRequestId++);
+  }
+
+  @Threads(1)
+  public static class OneThread extends DiscountCodeBenchmark {}
+
+  @Threads(2)
+  public static class TwoThreads extends DiscountCodeBenchmark {}
+
+  @Threads(4)
+  public static class FourThreads extends DiscountCodeBenchmark {}
+
+  @Threads(8)
+  public static class EightThreads extends DiscountCodeBenchmark {}
+}
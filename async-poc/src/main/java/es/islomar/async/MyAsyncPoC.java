@@ -1,16 +1,23 @@
 package es.islomar.async;
 
+import es.islomar.concurrent.HashedWheelTimer;
+import es.islomar.concurrent.Timers;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class MyAsyncPoC {
 
   private final MyCollaborator myCollaborator;
+  private final HashedWheelTimer timer;
 
   public MyAsyncPoC(final MyCollaborator myCollaborator) {
+    this(myCollaborator, Timers.shared());
+  }
 
+  public MyAsyncPoC(final MyCollaborator myCollaborator, final HashedWheelTimer timer) {
     this.myCollaborator = myCollaborator;
+    this.timer = timer;
   }
 
   public Future<String> exampleWithCompletableFuture(String message) {
@@ -32,22 +39,14 @@ public class MyAsyncPoC {
   public Future<String> calculateAsyncWithCancellation() {
     CompletableFuture<String> completableFuture = new CompletableFuture<>();
 
-    Executors.newCachedThreadPool().submit(() -> {
-      Thread.sleep(500);
-      completableFuture.cancel(false);
-      return null;
-    });
+    this.timer.schedule(() -> completableFuture.cancel(false), 500, TimeUnit.MILLISECONDS);
 
     return completableFuture;
   }
 
   private void executeFutureInAnotherThread(final String message,
                                             final CompletableFuture<String> completableFuture) {
-    Executors.newCachedThreadPool().submit(() -> {
-      Thread.sleep(500);
-      completableFuture.complete(message);
-      return null;
-    });
+    this.timer.schedule(() -> completableFuture.complete(message), 500, TimeUnit.MILLISECONDS);
   }
 
   public void execute() {
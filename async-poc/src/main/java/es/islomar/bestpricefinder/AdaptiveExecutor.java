@@ -0,0 +1,200 @@
+package es.islomar.bestpricefinder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread pool that resizes itself, within [minThreads, maxThreads], to the number of tasks in
+ * flight given by Little's law: arrival rate x service time. A shop call blocked 1000 msecs needs
+ * twice the threads of one blocked 500 msecs for the same load, which a size fixed at startup
+ * cannot follow.
+ *
+ * <p>The CPU time of the tasks bounds the size too: cores x (1 + blocking time / CPU time) threads
+ * keep every core busy, more would only compete for them.
+ *
+ * <p>Every sizingInterval the rates measured in the last interval are smoothed into the previous
+ * ones and the pool is resized. There is no thread of its own: the sizing is done by the thread
+ * submitting or finishing a task when the interval has elapsed.
+ */
+public class AdaptiveExecutor extends ThreadPoolExecutor implements AdaptiveExecutorMXBean {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  // Weight of the last interval in the smoothed measures
+  private static final double SMOOTHING = 0.5;
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+  private final int minThreads;
+  private final int maxThreads;
+  private final long sizingIntervalNanos;
+  private final AtomicLong lastSizing = new AtomicLong(System.nanoTime());
+  private final LongAdder arrivals = new LongAdder();
+  private final LongAdder completions = new LongAdder();
+  private final LongAdder serviceNanos = new LongAdder();
+  private final LongAdder cpuNanos = new LongAdder();
+  private final LongAdder resizes = new LongAdder();
+  // Wall clock and CPU time when the current task of every worker started
+  private final ThreadLocal<long[]> taskStart = ThreadLocal.withInitial(() -> new long[2]);
+  // Last sizing decision, only written by the thread doing the sizing
+  private volatile double arrivalsPerSecond;
+  private volatile double serviceTimeNanos;
+  private volatile double cpuTimeNanos;
+  private volatile int littlesLawThreads;
+  private volatile int cpuBoundThreads;
+
+  public AdaptiveExecutor(int minThreads, int maxThreads, Duration sizingInterval) {
+    super(
+        minThreads,
+        minThreads,
+        60,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        r -> {
+          Thread t = new Thread(r);
+          t.setDaemon(true);
+          return t;
+        });
+    if (minThreads < 1 || maxThreads < minThreads) {
+      throw new IllegalArgumentException(
+          "Invalid bounds: [" + minThreads + ", " + maxThreads + "]");
+    }
+    this.minThreads = minThreads;
+    this.maxThreads = maxThreads;
+    this.sizingIntervalNanos = sizingInterval.toNanos();
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    this.arrivals.increment();
+    resizeIfDue();
+    super.execute(command);
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r) {
+    long[] start = this.taskStart.get();
+    start[0] = System.nanoTime();
+    start[1] = currentThreadCpuTime();
+  }
+
+  @Override
+  protected void afterExecute(Runnable r, Throwable t) {
+    long[] start = this.taskStart.get();
+    this.serviceNanos.add(System.nanoTime() - start[0]);
+    this.cpuNanos.add(currentThreadCpuTime() - start[1]);
+    this.completions.increment();
+    resizeIfDue();
+  }
+
+  @Override
+  public int getMinThreads() {
+    return this.minThreads;
+  }
+
+  @Override
+  public int getMaxThreads() {
+    return this.maxThreads;
+  }
+
+  @Override
+  public int getTargetThreads() {
+    return getCorePoolSize();
+  }
+
+  @Override
+  public double getArrivalsPerSecond() {
+    return this.arrivalsPerSecond;
+  }
+
+  @Override
+  public double getServiceTimeMillis() {
+    return this.serviceTimeNanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public double getBlockingTimeMillis() {
+    return (this.serviceTimeNanos - this.cpuTimeNanos) / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public int getLittlesLawThreads() {
+    return this.littlesLawThreads;
+  }
+
+  @Override
+  public int getCpuBoundThreads() {
+    return this.cpuBoundThreads;
+  }
+
+  @Override
+  public long getResizes() {
+    return this.resizes.sum();
+  }
+
+  private void resizeIfDue() {
+    long now = System.nanoTime();
+    long last = this.lastSizing.get();
+    // A single thread does the sizing of every interval
+    if (now - last < this.sizingIntervalNanos || !this.lastSizing.compareAndSet(last, now)) {
+      return;
+    }
+    double seconds = (double) (now - last) / TimeUnit.SECONDS.toNanos(1);
+    long completed = this.completions.sumThenReset();
+    long service = this.serviceNanos.sumThenReset();
+    long cpu = this.cpuNanos.sumThenReset();
+    long arrived = this.arrivals.sumThenReset();
+    this.arrivalsPerSecond = smooth(this.arrivalsPerSecond, arrived / seconds);
+    if (completed > 0) {
+      this.serviceTimeNanos = smooth(this.serviceTimeNanos, (double) service / completed);
+      this.cpuTimeNanos = smooth(this.cpuTimeNanos, (double) cpu / completed);
+    }
+    if (this.serviceTimeNanos == 0) {
+      // No task has finished yet: nothing to size with
+      return;
+    }
+
+    this.littlesLawThreads =
+        (int)
+            Math.ceil(
+                this.arrivalsPerSecond * this.serviceTimeNanos / TimeUnit.SECONDS.toNanos(1));
+    // Without CPU time measures (unsupported by the JVM) only Little's law applies. Casting a too
+    // big double gives Integer.MAX_VALUE
+    this.cpuBoundThreads =
+        this.cpuTimeNanos > 0
+            ? (int) Math.ceil(CORES * this.serviceTimeNanos / this.cpuTimeNanos)
+            : Integer.MAX_VALUE;
+    int target =
+        Math.max(
+            this.minThreads,
+            Math.min(this.maxThreads, Math.min(this.littlesLawThreads, this.cpuBoundThreads)));
+    resizeTo(target);
+  }
+
+  private synchronized void resizeTo(int threads) {
+    if (threads == getCorePoolSize()) {
+      return;
+    }
+    // The core size can never be above the maximum one
+    if (threads > getMaximumPoolSize()) {
+      setMaximumPoolSize(threads);
+      setCorePoolSize(threads);
+    } else {
+      setCorePoolSize(threads);
+      setMaximumPoolSize(threads);
+    }
+    this.resizes.increment();
+  }
+
+  private static double smooth(double previous, double current) {
+    return previous == 0 ? current : SMOOTHING * current + (1 - SMOOTHING) * previous;
+  }
+
+  private static long currentThreadCpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+  }
+}
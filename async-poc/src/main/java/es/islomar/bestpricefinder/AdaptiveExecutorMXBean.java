@@ -0,0 +1,26 @@
+package es.islomar.bestpricefinder;
+
+// JMX view of the sizing decisions of an AdaptiveExecutor
+public interface AdaptiveExecutorMXBean {
+
+  int getMinThreads();
+
+  int getMaxThreads();
+
+  // Current size of the pool
+  int getTargetThreads();
+
+  double getArrivalsPerSecond();
+
+  double getServiceTimeMillis();
+
+  double getBlockingTimeMillis();
+
+  // Tasks in flight: arrivals per second x service time
+  int getLittlesLawThreads();
+
+  // Threads that keep every core busy: cores x (1 + blocking time / CPU time)
+  int getCpuBoundThreads();
+
+  long getResizes();
+}
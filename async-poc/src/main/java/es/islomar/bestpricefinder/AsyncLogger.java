@@ -0,0 +1,156 @@
+package es.islomar.bestpricefinder;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log lines written by a background thread, so the threads that log never wait for the console
+ * (a synchronized PrintStream) or for a file.
+ *
+ * <p>Records go through a bounded lock-free ring buffer: every slot has a sequence number telling
+ * whether it is free or holds a record of the current lap, so producers only race for the tail
+ * with a CAS. The writer thread takes up to MAX_BATCH records at a time and writes them with a
+ * single print(). When the buffer is full the record is dropped and counted, and the writer
+ * reports how many were dropped in the output.
+ *
+ * <p>Records are a message and an optional value: the value is only turned into text by the
+ * writer thread.
+ */
+public class AsyncLogger {
+
+  private static final int MAX_BATCH = 256;
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+  private final PrintStream out;
+  private final String[] messages;
+  private final Object[] values;
+  // position + 1 when the slot of position holds its record, position when it is free
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private final LongAdder droppedRecords = new LongAdder();
+  private final Thread writer;
+  // Only used by the writer thread
+  private long head;
+  private volatile long written;
+  private volatile boolean stopped;
+
+  public AsyncLogger(PrintStream out, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.out = out;
+    // Power of two, so the slot of a position is position & mask
+    int size = Math.max(Integer.highestOneBit(capacity - 1) << 1, 1);
+    this.messages = new String[size];
+    this.values = new Object[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      this.sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.writer = new Thread(this::run, "async-logger");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  public void log(String message) {
+    log(message, null);
+  }
+
+  // Never blocks: the record is dropped if the buffer is full
+  public void log(String message, Object value) {
+    long position;
+    while (true) {
+      position = this.tail.get();
+      long sequence = this.sequences.get(slot(position));
+      if (sequence == position) {
+        if (this.tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (sequence < position) {
+        // The writer has not freed the slot of the previous lap yet
+        this.droppedRecords.increment();
+        return;
+      }
+    }
+    int slot = slot(position);
+    this.messages[slot] = message;
+    this.values[slot] = value;
+    this.sequences.set(slot, position + 1);
+  }
+
+  // Waits until every record logged so far has been written
+  public void flush() {
+    long logged = this.tail.get();
+    while (this.written < logged && this.writer.isAlive()) {
+      LockSupport.parkNanos(IDLE_NANOS);
+    }
+  }
+
+  public long getDroppedRecords() {
+    return this.droppedRecords.sum();
+  }
+
+  // The records logged before stop() are still written
+  public void stop() {
+    this.stopped = true;
+  }
+
+  private void run() {
+    StringBuilder batch = new StringBuilder();
+    long reportedDrops = 0;
+    while (true) {
+      boolean isLastBatch = this.stopped;
+      int records = drain(batch);
+      long drops = this.droppedRecords.sum();
+      if (drops > reportedDrops) {
+        batch.append("AsyncLogger dropped ").append(drops - reportedDrops).append(" records");
+        batch.append(System.lineSeparator());
+        reportedDrops = drops;
+      }
+      if (batch.length() > 0) {
+        this.out.print(batch);
+        this.out.flush();
+        batch.setLength(0);
+      }
+      this.written = this.head;
+      if (records == 0) {
+        if (isLastBatch) {
+          return;
+        }
+        LockSupport.parkNanos(IDLE_NANOS);
+      }
+    }
+  }
+
+  private int drain(StringBuilder batch) {
+    int records = 0;
+    while (records < MAX_BATCH) {
+      int slot = slot(this.head);
+      if (this.sequences.get(slot) != this.head + 1) {
+        return records;
+      }
+      batch.append(this.messages[slot]);
+      if (this.values[slot] != null) {
+        batch.append(this.values[slot]);
+      }
+      batch.append(System.lineSeparator());
+      this.messages[slot] = null;
+      this.values[slot] = null;
+      // Free for the record of the next lap
+      this.sequences.set(slot, this.head + this.messages.length);
+      this.head++;
+      records++;
+    }
+    return records;
+  }
+
+  private int slot(long position) {
+    return (int) (position & this.mask);
+  }
+}
@@ -2,14 +2,39 @@ package es.islomar.bestpricefinder;
 
 import static java.util.stream.Collectors.toList;
 
+import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.DiscountedPrice;
 import es.islomar.bestpricefinder.model.Money;
 import es.islomar.bestpricefinder.model.Quote;
+import es.islomar.bestpricefinder.model.QuoteBatch;
+import es.islomar.bestpricefinder.model.QuoteCodec;
 import es.islomar.bestpricefinder.model.Shop;
+import es.islomar.bestpricefinder.model.ShopPrice;
+import es.islomar.bestpricefinder.model.ShopResult;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class BestPriceFinder {
@@ -44,47 +69,151 @@ public class BestPriceFinder {
             t.setDaemon(true);
             return t;
           });
+  // One virtual thread per task: never needs sizing, thousands of blocked shop calls are fine
+  private static final Executor VIRTUAL_THREAD_EXECUTOR = VirtualThreads.newThreadPerTaskExecutor();
+  // Starts with a thread per core and follows the load up to 256 threads
+  private static final Executor ADAPTIVE_EXECUTOR =
+      new AdaptiveExecutor(Runtime.getRuntime().availableProcessors(), 256, Duration.ofMillis(500));
+  // No price is good enough to stop looking for a better one
+  private static final double NO_GOOD_ENOUGH_PRICE = Double.NEGATIVE_INFINITY;
+  // Start time of a shop call that has not started yet
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+  private final List<Shop> shops;
   private final ShopService shopService;
+  private final ExchangeRateProvider exchangeRateProvider;
+  private final Executor executor;
   private final boolean isRandomDelay;
+  // null: the shop calls go straight to the Executor
+  private final Bulkhead bulkhead;
+  // null: every shop is always called
+  private final ShopCircuitBreakers circuitBreakers;
+  private final PipelineMetrics metrics;
 
   public BestPriceFinder(boolean isRandomDelay) {
-    this.shopService = new ShopService(isRandomDelay);
+    this(isRandomDelay, ExecutionMode.PLATFORM_THREAD_POOL);
+  }
+
+  public BestPriceFinder(boolean isRandomDelay, ExecutionMode executionMode) {
+    this(ALL_SHOPS, isRandomDelay, executionMode);
+  }
+
+  // Repeated queries for the same product are served from priceCache while they are fresh
+  public BestPriceFinder(boolean isRandomDelay, PriceCache priceCache) {
+    this(ALL_SHOPS, new ShopService(isRandomDelay, priceCache), EXECUTOR, isRandomDelay);
+  }
+
+  public BestPriceFinder(List<Shop> shops, boolean isRandomDelay, ExecutionMode executionMode) {
+    this(shops, new ShopService(isRandomDelay), executorFor(executionMode), isRandomDelay);
+  }
+
+  // Queries every shop of the registry, each one with its own latency and discount profiles
+  public BestPriceFinder(
+      ShopRegistry shopRegistry, boolean isRandomDelay, ExecutionMode executionMode) {
+    this(shopRegistry.asList(), isRandomDelay, executionMode);
+  }
+
+  // Lets callers (e.g. the JMH benchmarks) choose the shops to query and the Executor used by the
+  // *WithExecutor and discount pipelines
+  public BestPriceFinder(
+      List<Shop> shops, ShopService shopService, Executor executor, boolean isRandomDelay) {
+    this(shops, shopService, new ExchangeRateProvider(isRandomDelay), executor, isRandomDelay);
+  }
+
+  // Shop calls beyond the limits of the bulkhead fail right away (REJECTED in the ShopResults)
+  // instead of waiting in the queue of the Executor. The discounts are not limited by the bulkhead:
+  // they go straight to its Executor
+  public BestPriceFinder(
+      List<Shop> shops, ShopService shopService, Bulkhead bulkhead, boolean isRandomDelay) {
+    this(
+        shops,
+        shopService,
+        new ExchangeRateProvider(isRandomDelay),
+        bulkhead.getExecutor(),
+        bulkhead,
+        null,
+        isRandomDelay);
+  }
+
+  public BestPriceFinder(
+      List<Shop> shops,
+      ShopService shopService,
+      ExchangeRateProvider exchangeRateProvider,
+      Executor executor,
+      boolean isRandomDelay) {
+    this(shops, shopService, exchangeRateProvider, executor, null, null, isRandomDelay);
+  }
+
+  /**
+   * Both bulkhead and circuitBreakers are optional (null). The shops whose circuit is open are not
+   * called: they are reported as UNAVAILABLE in the ShopResults and QuoteBatches, and left out of
+   * the other answers.
+   *
+   * <p>The bulkhead only limits the queries that make a call per shop on the Executor. The circuit
+   * breakers are checked by every query, whatever thread calls the shops: the sequential, parallel
+   * and common pool queries, the non-blocking one and the basket of findPricesWithDiscounts(List,
+   * int) leave the shops whose circuit is open out of their answers too.
+   */
+  public BestPriceFinder(
+      List<Shop> shops,
+      ShopService shopService,
+      ExchangeRateProvider exchangeRateProvider,
+      Executor executor,
+      Bulkhead bulkhead,
+      ShopCircuitBreakers circuitBreakers,
+      boolean isRandomDelay) {
+    // The shops of a ShopRegistry are decoded on every get(): decoded once here, instead of every
+    // time a query reads them (to call them, to decode their quotes, to report them)
+    this.shops = List.copyOf(shops);
+    this.shopService = shopService;
+    this.exchangeRateProvider = exchangeRateProvider;
+    this.executor = executor;
+    this.bulkhead = bulkhead;
+    this.circuitBreakers = circuitBreakers;
     this.isRandomDelay = isRandomDelay;
+    this.metrics = new PipelineMetrics(executor);
+  }
+
+  // Time spent by the queries in every stage (see PipelineMetrics.registerMBeans() to publish it)
+  public PipelineMetrics getMetrics() {
+    return this.metrics;
   }
 
   public List<String> findPricesSequential(String product) {
-    return ALL_SHOPS.stream()
-        .map(
+    return this.shops.stream()
+        .flatMap(
             shop ->
-                String.format(
-                    "%s price is %s",
-                    shop.getName(), this.shopService.getPriceWithDiscount(product, shop)))
+                callShop(shop, () -> this.shopService.getPriceWithDiscount(product, shop))
+                    .map(price -> priceText(shop.getName(), price))
+                    .stream())
         .collect(toList());
   }
 
   public List<String> findPricesWithParallel(String product) {
-    return ALL_SHOPS
+    return this.shops
         .parallelStream()
-        .map(
+        .flatMap(
             shop ->
-                String.format(
-                    "%s price is %s",
-                    shop.getName(), this.shopService.getPriceWithDiscount(product, shop)))
+                callShop(shop, () -> this.shopService.getPriceWithDiscount(product, shop))
+                    .map(price -> priceText(shop.getName(), price))
+                    .stream())
         .collect(toList());
   }
 
   public List<String> findPricesWithStreamsAndAsync(String product) {
     // Calculate each price asynchronously with a CompletableFuture
     List<CompletableFuture<String>> priceFutures =
-        ALL_SHOPS.stream()
-            .map(
-                shop ->
-                    CompletableFuture.supplyAsync(
-                        () ->
-                            String.format(
-                                "%s price is %s",
-                                shop.getName(),
-                                this.shopService.getPriceWithDiscount(product, shop))))
+        withoutUnavailableShops(
+                this.shops.stream()
+                    .map(
+                        shop ->
+                            callShopAsync(
+                                    shop,
+                                    () ->
+                                        CompletableFuture.supplyAsync(
+                                            () ->
+                                                this.shopService.getPriceWithDiscount(
+                                                    product, shop)))
+                                .thenApply(price -> priceText(shop.getName(), price))))
             .collect(toList());
 
     // Wait for the completion of all asynchronous operations
@@ -94,27 +223,37 @@ public class BestPriceFinder {
   public List<String> findPricesWithStreamsAndAsyncAndExecutor(String product) {
     // Calculate each price asynchronously with a CompletableFuture
     List<CompletableFuture<String>> priceFutures =
-        ALL_SHOPS.stream()
-            .map(
-                shop ->
-                    CompletableFuture.supplyAsync(
-                        () ->
-                            String.format(
-                                "%s price is %s",
-                                shop.getName(),
-                                this.shopService.getPriceWithDiscount(product, shop)),
-                        EXECUTOR))
+        withoutUnavailableShops(
+                findPricesWithExecutor(this.shops, product, RequestScope.NONE).stream())
             .collect(toList());
 
     // Wait for the completion of all asynchronous operations
-    return priceFutures.stream().map(CompletableFuture::join).collect(toList());
+    return joinAll(priceFutures);
+  }
+
+  // Same as above, but a slow shop cannot delay the response beyond the timeout
+  public List<ShopResult<String>> findPricesWithStreamsAndAsyncAndExecutor(
+      String product, Duration timeout) {
+    RequestScope scope = new RequestScope();
+    return collectUntil(
+        this.shops, findPricesWithExecutor(this.shops, product, scope), timeout, scope);
   }
 
   public List<String> syncFindPricesWithDiscounts(String product) {
-    return ALL_SHOPS.stream()
-        .map(shop -> this.shopService.getPriceWithDiscount(product, shop))
-        .map(Quote::parse)
-        .map(quote -> DiscountService.applyDiscount(quote, this.isRandomDelay))
+    ByteBuffer quotes = QuoteCodec.allocate(this.shops.size());
+    long requestId = newRequestId();
+    return IntStream.range(0, this.shops.size())
+        .filter(shopId -> encodeQuote(product, shopId, quotes, requestId))
+        .mapToObj(
+            shopId ->
+                timed(
+                    PipelineStage.QUOTE_DECODE,
+                    () -> QuoteCodec.decode(quotes, shopId, this.shops)))
+        .map(
+            quote ->
+                timed(
+                    PipelineStage.DISCOUNT,
+                    () -> DiscountService.applyDiscount(quote, this.isRandomDelay)))
         .collect(toList());
   }
 
@@ -126,26 +265,247 @@ public class BestPriceFinder {
     List<CompletableFuture<String>> priceFutures =
         this.findPricesWithDiscountStream(product).collect(toList());
 
-    return priceFutures.stream().map(CompletableFuture::join).collect(toList());
+    return joinAll(priceFutures);
+  }
+
+  // Same as asyncFindPricesWithDiscounts(), without building a String per shop: render the prices
+  // that are actually shown with toString()
+  public List<DiscountedPrice> findDiscountedPrices(String product) {
+    return joinAll(findDiscountedPricesStream(product).collect(toList()));
+  }
+
+  /**
+   * Same as findDiscountedPrices(), without blocking the caller. Cancelling the returned future
+   * cancels the whole query: the shop calls and discounts not started yet never run, and the ones
+   * running are interrupted, so their threads are free right away. In fail-fast mode, the first
+   * shop that fails makes the query fail and cancels it the same way.
+   */
+  public CompletableFuture<List<DiscountedPrice>> findDiscountedPricesAsync(
+      String product, boolean failFast) {
+    RequestScope scope = new RequestScope();
+    List<CompletableFuture<DiscountedPrice>> prices =
+        findDiscountedPricesStream(this.shops, product, scope).collect(toList());
+    CompletableFuture<List<DiscountedPrice>> result =
+        CompletableFuture.allOf(prices.toArray(new CompletableFuture<?>[0]))
+            .thenApply(done -> prices.stream().map(CompletableFuture::join).collect(toList()));
+    if (failFast) {
+      prices.forEach(
+          price ->
+              price.whenComplete(
+                  (value, ex) -> {
+                    if (ex != null) {
+                      result.completeExceptionally(ex);
+                    }
+                  }));
+    }
+    result.whenComplete(
+        (value, ex) -> {
+          if (ex != null) {
+            scope.cancel();
+          }
+        });
+    return result;
   }
 
-  // Combine two independent tasks
+  // Shops without a discounted price when the timeout expires are reported as TIMED_OUT
+  public List<ShopResult<String>> asyncFindPricesWithDiscounts(String product, Duration timeout) {
+    RequestScope scope = new RequestScope();
+    return collectUntil(
+        this.shops,
+        findPricesWithDiscountStream(this.shops, product, scope).collect(toList()),
+        timeout,
+        scope);
+  }
+
+  /**
+   * Prices a basket of distinct products in all the shops as a single job: instead of one fan-out
+   * per product, maxParallelism workers are started on the Executor, and each of them takes the
+   * next (product, shop) pair until there are none left.
+   */
+  public Map<String, List<ShopPrice>> findPricesWithDiscounts(
+      List<String> products, int maxParallelism) {
+    if (maxParallelism < 1) {
+      throw new IllegalArgumentException("maxParallelism must be positive: " + maxParallelism);
+    }
+    if (new HashSet<>(products).size() != products.size()) {
+      throw new IllegalArgumentException("Duplicated products in the basket: " + products);
+    }
+    int shopCount = this.shops.size();
+    int pairs = products.size() * shopCount;
+    ShopPrice[] prices = new ShopPrice[pairs];
+    List<ByteBuffer> quotesByProduct =
+        products.stream().map(product -> QuoteCodec.allocate(shopCount)).collect(toList());
+    AtomicInteger nextPair = new AtomicInteger();
+    long requestId = newRequestId();
+    Runnable worker =
+        () -> {
+          for (int pair = nextPair.getAndIncrement();
+              pair < pairs;
+              pair = nextPair.getAndIncrement()) {
+            int productIndex = pair / shopCount;
+            int shopId = pair % shopCount;
+            ByteBuffer quotes = quotesByProduct.get(productIndex);
+            String product = products.get(productIndex);
+            if (!encodeQuote(product, shopId, quotes, requestId + productIndex)) {
+              continue;
+            }
+            Quote quote =
+                timed(
+                    PipelineStage.QUOTE_DECODE,
+                    () -> QuoteCodec.decode(quotes, shopId, this.shops));
+            double price =
+                timed(
+                    PipelineStage.DISCOUNT,
+                    () -> DiscountService.discountedPrice(quote, this.isRandomDelay));
+            prices[pair] = new ShopPrice(quote.getShopName(), price);
+          }
+        };
+    joinAll(
+        IntStream.range(0, Math.min(maxParallelism, pairs))
+            .mapToObj(i -> runWithExecutor(worker))
+            .collect(toList()));
+
+    Map<String, List<ShopPrice>> pricesByProduct = new LinkedHashMap<>();
+    for (int productIndex = 0; productIndex < products.size(); productIndex++) {
+      int from = productIndex * shopCount;
+      // No price for the shops whose circuit is open
+      pricesByProduct.put(
+          products.get(productIndex),
+          Arrays.stream(prices, from, from + shopCount)
+              .filter(Objects::nonNull)
+              .collect(toList()));
+    }
+    return pricesByProduct;
+  }
+
+  /**
+   * Same pipeline as asyncFindPricesWithDiscounts(), built on the non-blocking services: no thread
+   * waits for the shops or for the discount service, so the number of shops in flight is not
+   * limited by the number of threads of any pool. The threads of the Executor only decode the
+   * quotes and render the prices once they are ready.
+   */
+  public List<String> nonBlockingFindPricesWithDiscounts(String product) {
+    ByteBuffer quotes = QuoteCodec.allocate(this.shops.size());
+    long requestId = newRequestId();
+    List<CompletableFuture<Void>> encodedQuotes =
+        IntStream.range(0, this.shops.size())
+            .mapToObj(
+                shopId -> {
+                  Shop shop = this.shops.get(shopId);
+                  return callShopAsync(
+                      shop,
+                      () ->
+                          this.shopService.encodePriceWithDiscountAsync(
+                              product, shop, shopId, quotes, requestId));
+                })
+            .collect(toList());
+    List<CompletableFuture<String>> priceFutures =
+        IntStream.range(0, this.shops.size())
+            .filter(shopId -> !isUnavailable(encodedQuotes.get(shopId)))
+            .mapToObj(
+                shopId ->
+                    encodedQuotes
+                        .get(shopId)
+                        // The timer thread only completes the futures: the work goes to the
+                        // Executor
+                        .thenApplyAsync(
+                            encoded -> QuoteCodec.decode(quotes, shopId, this.shops), this.executor)
+                        .thenCompose(quote -> DiscountService.discountAsync(quote, false))
+                        .thenApplyAsync(DiscountedPrice::toString, this.executor))
+            .collect(toList());
+
+    return joinAll(priceFutures);
+  }
+
+  // Combine two independent tasks: the rate is requested once and shared by all the shops
   public List<Double> futurePriceInUSD(String product) {
+    CompletableFuture<Double> futureRate =
+        this.exchangeRateProvider.getRate(Money.EUR, Money.USD);
     Stream<CompletableFuture<Double>> futurePricesInUSD =
-        ALL_SHOPS.stream()
-            .map(
-                shop ->
-                    CompletableFuture.supplyAsync(() -> this.shopService.getPrice(product))
-                        .thenCombine(
-                            CompletableFuture.supplyAsync(
+        withoutUnavailableShops(
+                this.shops.stream()
+                    .map(
+                        shop ->
+                            callShopAsync(
+                                shop,
                                 () ->
-                                    ExchangeService.getRate(
-                                        Money.EUR, Money.USD, this.isRandomDelay)),
-                            (price, rate) -> price * rate));
+                                    CompletableFuture.supplyAsync(
+                                        () -> this.shopService.getPrice(product)))))
+            .map(futurePrice -> futurePrice.thenCombine(futureRate, (price, rate) -> price * rate));
 
     return futurePricesInUSD.map(CompletableFuture::join).collect(toList());
   }
 
+  // Same as futurePriceInUSD(), with the prices converted in a single pass once all the shops
+  // have answered. Prices are not discounted, so their discount code is NONE
+  public QuoteBatch findPricesInUSD(String product) {
+    CompletableFuture<Double> futureRate =
+        this.exchangeRateProvider.getRate(Money.EUR, Money.USD);
+    // Only cancels anything if the caller is interrupted while waiting
+    RequestScope scope = new RequestScope();
+    QuoteBatch batch = new QuoteBatch(this.shops);
+    List<CompletableFuture<Void>> prices = new ArrayList<>(this.shops.size());
+    for (int shopId = 0; shopId < this.shops.size(); shopId++) {
+      int id = shopId;
+      prices.add(
+          supplyForShop(
+              this.shops.get(shopId),
+              scope,
+              () -> {
+                long start = System.nanoTime();
+                double price = this.shopService.getPrice(product);
+                this.metrics.recordSince(PipelineStage.PRICE_FETCH, start);
+                batch.setPrice(id, price, DiscountCode.NONE);
+                return null;
+              }));
+    }
+
+    long start = System.nanoTime();
+    awaitUntil(prices, null);
+    this.metrics.recordSince(PipelineStage.JOIN, start);
+    setStatuses(batch, prices);
+    scope.cancel();
+    batch.convert(futureRate.join());
+    return batch;
+  }
+
+  /**
+   * Same query as {@link #asyncFindPricesWithDiscounts(String, Duration)}, with the answers in a
+   * QuoteBatch instead of a ShopResult holding a String per shop.
+   */
+  public QuoteBatch findQuoteBatch(String product, Duration timeout) {
+    RequestScope scope = new RequestScope();
+    QuoteBatch batch = new QuoteBatch(this.shops);
+    List<CompletableFuture<Quote>> quotes =
+        findQuotesStream(this.shops, product, scope).collect(toList());
+    List<CompletableFuture<Void>> prices = new ArrayList<>(quotes.size());
+    for (int shopId = 0; shopId < quotes.size(); shopId++) {
+      int id = shopId;
+      prices.add(
+          scope.track(
+              quotes
+                  .get(shopId)
+                  .thenCompose(
+                      quote ->
+                          scope.track(
+                              runWithExecutor(
+                                  scope.interruptible(
+                                      () -> {
+                                        long start = System.nanoTime();
+                                        double discounted =
+                                            DiscountService.discountedPrice(
+                                                quote, this.isRandomDelay);
+                                        this.metrics.recordSince(PipelineStage.DISCOUNT, start);
+                                        batch.setPrice(id, discounted, quote.getDiscountCode());
+                                      }))))));
+    }
+
+    boolean isComplete = awaitUntil(prices, timeout);
+    setStatuses(batch, prices);
+    finish(scope, isComplete);
+    return batch;
+  }
+
   // Register an action to each CompletableFuture; this action consumes the value of the
   // CompletableFuture as soon as it completes
   public void asyncFindPricesAsap(String product) {
@@ -176,18 +536,473 @@ public class BestPriceFinder {
         "All shops have now responded in " + ((System.nanoTime() - start) / 1_000_000) + " msecs");
   }
 
-  private Stream<CompletableFuture<String>> findPricesWithDiscountStream(String product) {
-    return ALL_SHOPS.stream()
+  /**
+   * Same incremental behavior as asyncFindPricesAsap(), but the discounted prices go to whoever
+   * subscribes, as soon as they are ready and as fast as the subscriber requests them. Every
+   * subscription runs its own query: cancelling it (or the first failed shop) cancels the shop
+   * calls and discounts not started yet and interrupts the running ones.
+   */
+  public Flow.Publisher<DiscountedPrice> publishPricesWithDiscounts(String product) {
+    return new CompletionPublisher<>(
+        scope ->
+            withoutUnavailableShops(findDiscountedPricesStream(this.shops, product, scope))
+                .collect(toList()));
+  }
+
+  public Optional<ShopPrice> findBestPrice(String product) {
+    return findBestPrice(product, NO_GOOD_ENOUGH_PRICE);
+  }
+
+  /**
+   * Cheapest discounted price, if any shop answered. As soon as a price at or below
+   * goodEnoughPrice arrives the query finishes, and the shops still pending are cancelled.
+   */
+  public Optional<ShopPrice> findBestPrice(String product, double goodEnoughPrice) {
+    List<ShopPrice> bestPrices = findTopK(product, 1, goodEnoughPrice);
+    return bestPrices.isEmpty() ? Optional.empty() : Optional.of(bestPrices.get(0));
+  }
+
+  public List<ShopPrice> findTopK(String product, int k) {
+    return findTopK(product, k, NO_GOOD_ENOUGH_PRICE);
+  }
+
+  /**
+   * The k cheapest discounted prices, cheapest first (fewer if fewer shops answered). The prices
+   * are reduced as they arrive, as doubles: nothing is formatted nor parsed. As soon as k prices
+   * at or below goodEnoughPrice have arrived the query finishes, and the shops still pending are
+   * cancelled: the ones not started yet are never called.
+   */
+  public List<ShopPrice> findTopK(String product, int k, double goodEnoughPrice) {
+    if (k < 1) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    RequestScope scope = new RequestScope();
+    // The heap is sized by k: there are never more prices than shops, whatever k is
+    TopPrices topPrices = new TopPrices(Math.min(k, this.shops.size()));
+    CompletableFuture<Void> finished = new CompletableFuture<>();
+    AtomicInteger pendingShops = new AtomicInteger(this.shops.size());
+    List<CompletableFuture<Quote>> quotes =
+        findQuotesStream(this.shops, product, scope).collect(toList());
+    for (int shopId = 0; shopId < quotes.size(); shopId++) {
+      int id = shopId;
+      CompletableFuture<Void> price =
+          scope.track(
+              quotes
+                  .get(shopId)
+                  .thenCompose(
+                      quote ->
+                          scope.track(
+                              runWithExecutor(
+                                  scope.interruptible(
+                                      () -> {
+                                        long start = System.nanoTime();
+                                        double discounted =
+                                            DiscountService.discountedPrice(
+                                                quote, this.isRandomDelay);
+                                        this.metrics.recordSince(PipelineStage.DISCOUNT, start);
+                                        topPrices.offer(id, discounted);
+                                        if (topPrices.areAllAtMost(goodEnoughPrice)) {
+                                          finished.complete(null);
+                                        }
+                                      })))));
+      // Failed shops do not count, but the query must not wait for them
+      price.whenComplete(
+          (done, ex) -> {
+            if (pendingShops.decrementAndGet() == 0) {
+              finished.complete(null);
+            }
+          });
+    }
+    if (quotes.isEmpty()) {
+      finished.complete(null);
+    }
+
+    timed(PipelineStage.JOIN, finished::join);
+    scope.cancel();
+    return topPrices.toShopPrices(this.shops);
+  }
+
+  private List<CompletableFuture<String>> findPricesWithExecutor(
+      List<Shop> shops, String product, RequestScope scope) {
+    return shops.stream()
         .map(
             shop ->
-                CompletableFuture.supplyAsync(
-                    () -> this.shopService.getPriceWithDiscount(product, shop), EXECUTOR))
-        .map(future -> future.thenApply(Quote::parse))
+                supplyForShop(
+                    shop,
+                    scope,
+                    () ->
+                        priceText(
+                            shop.getName(),
+                            timed(
+                                PipelineStage.PRICE_FETCH,
+                                () -> this.shopService.getPriceWithDiscount(product, shop)))))
+        .collect(toList());
+  }
+
+  // Runs the task in the Executor, measuring how long it waited for a thread
+  private <T> CompletableFuture<T> supplyWithExecutor(Supplier<T> task) {
+    return CompletableFuture.supplyAsync(measuringQueueWait(task), this.executor);
+  }
+
+  // Same as supplyWithExecutor() in the scope of the query, unless the circuit of the shop is
+  // open (then it fails right away, before the future is returned), and through the bulkhead if
+  // there is one
+  private <T> CompletableFuture<T> supplyForShop(Shop shop, RequestScope scope, Supplier<T> call) {
+    if (this.circuitBreakers == null) {
+      return scope.track(submitForShop(shop, scope.interruptible(call)));
+    }
+    CircuitBreaker.Permission permission =
+        this.circuitBreakers.forShop(shop.getName()).tryAcquirePermission();
+    if (permission == null) {
+      return CompletableFuture.failedFuture(new ShopUnavailableException(shop.getName()));
+    }
+    AtomicLong startedAt = new AtomicLong(NOT_STARTED);
+    CompletableFuture<T> result =
+        scope.track(
+            submitForShop(
+                shop,
+                scope.interruptible(
+                    () -> {
+                      long start = System.nanoTime();
+                      startedAt.set(start);
+                      try {
+                        T value = call.get();
+                        permission.onSuccess(System.nanoTime() - start);
+                        return value;
+                      } catch (RuntimeException | Error e) {
+                        // Interrupted by the scope: the outcome depends on why (see below)
+                        if (!scope.isCancelled()) {
+                          permission.onFailure(System.nanoTime() - start);
+                        }
+                        throw e;
+                      }
+                    })));
+    // The call is cancelled as soon as its query is, even if the shop ignores the interrupt
+    result.whenComplete(
+        (value, ex) -> {
+          if (ex == null) {
+            return;
+          }
+          long start = startedAt.get();
+          if (start == NOT_STARTED) {
+            // Never called: the bulkhead had no room for it, the Executor rejected it, or it was
+            // cancelled before it started
+            permission.release();
+          } else if (scope.isExpired()) {
+            // Still running when the deadline of the query passed
+            permission.onFailure(System.nanoTime() - start);
+          } else {
+            // Abandoned by its query, e.g. a good enough price was found in another shop
+            permission.onCancelled(System.nanoTime() - start);
+          }
+        });
+    return result;
+  }
+
+  // Same checks as supplyForShop() for the queries that call the shops on the calling thread: empty
+  // if the circuit of the shop is open
+  private <T> Optional<T> callShop(Shop shop, Supplier<T> call) {
+    if (this.circuitBreakers == null) {
+      return Optional.of(call.get());
+    }
+    CircuitBreaker.Permission permission =
+        this.circuitBreakers.forShop(shop.getName()).tryAcquirePermission();
+    if (permission == null) {
+      return Optional.empty();
+    }
+    long start = System.nanoTime();
+    try {
+      T value = call.get();
+      permission.onSuccess(System.nanoTime() - start);
+      return Optional.of(value);
+    } catch (RuntimeException | Error e) {
+      permission.onFailure(System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  // Same checks as supplyForShop() for the queries that start the shop calls on their own (common
+  // pool, timer): the duration of a call includes its wait for a thread, if any
+  private <T> CompletableFuture<T> callShopAsync(
+      Shop shop, Supplier<CompletableFuture<T>> call) {
+    if (this.circuitBreakers == null) {
+      return call.get();
+    }
+    CircuitBreaker.Permission permission =
+        this.circuitBreakers.forShop(shop.getName()).tryAcquirePermission();
+    if (permission == null) {
+      return CompletableFuture.failedFuture(new ShopUnavailableException(shop.getName()));
+    }
+    long start = System.nanoTime();
+    CompletableFuture<T> result;
+    try {
+      result = call.get();
+    } catch (RuntimeException | Error e) {
+      permission.onFailure(System.nanoTime() - start);
+      throw e;
+    }
+    return result.whenComplete(
+        (value, ex) -> {
+          if (ex == null) {
+            permission.onSuccess(System.nanoTime() - start);
+          } else {
+            permission.onFailure(System.nanoTime() - start);
+          }
+        });
+  }
+
+  // Writes the quote of the shop into quotes on the calling thread: false if the circuit of the
+  // shop is open
+  private boolean encodeQuote(String product, int shopId, ByteBuffer quotes, long requestId) {
+    Shop shop = this.shops.get(shopId);
+    long start = System.nanoTime();
+    Optional<Boolean> encoded =
+        callShop(
+            shop,
+            () -> {
+              this.shopService.encodePriceWithDiscount(product, shop, shopId, quotes, requestId);
+              return true;
+            });
+    encoded.ifPresent(called -> this.metrics.recordSince(PipelineStage.PRICE_FETCH, start));
+    return encoded.isPresent();
+  }
+
+  private <T> CompletableFuture<T> submitForShop(Shop shop, Supplier<T> call) {
+    if (this.bulkhead == null) {
+      return supplyWithExecutor(call);
+    }
+    return this.bulkhead.supplyAsync(shop.getName(), measuringQueueWait(call));
+  }
+
+  private <T> Supplier<T> measuringQueueWait(Supplier<T> task) {
+    long submittedAt = System.nanoTime();
+    return () -> {
+      this.metrics.recordSince(PipelineStage.QUEUE_WAIT, submittedAt);
+      return task.get();
+    };
+  }
+
+  private CompletableFuture<Void> runWithExecutor(Runnable task) {
+    long submittedAt = System.nanoTime();
+    return CompletableFuture.runAsync(
+        () -> {
+          this.metrics.recordSince(PipelineStage.QUEUE_WAIT, submittedAt);
+          task.run();
+        },
+        this.executor);
+  }
+
+  private <T> T timed(PipelineStage stage, Supplier<T> task) {
+    long start = System.nanoTime();
+    try {
+      return task.get();
+    } finally {
+      this.metrics.recordSince(stage, start);
+    }
+  }
+
+  private <T> List<T> joinAll(List<CompletableFuture<T>> futures) {
+    return timed(
+        PipelineStage.JOIN,
+        () -> futures.stream().map(CompletableFuture::join).collect(toList()));
+  }
+
+  // Waits for all the futures (one per shop, in the same order as the shops) until the timeout
+  // expires at most. Then the scope of the query is cancelled: the stages still pending never run
+  // and the running ones are interrupted
+  private <T> List<ShopResult<T>> collectUntil(
+      List<Shop> shops,
+      List<CompletableFuture<T>> futures,
+      Duration timeout,
+      RequestScope scope) {
+    boolean isComplete = awaitUntil(futures, timeout);
+    List<ShopResult<T>> results = new ArrayList<>(futures.size());
+    for (int i = 0; i < futures.size(); i++) {
+      results.add(toShopResult(shops.get(i).getName(), futures.get(i)));
+    }
+    finish(scope, isComplete);
+    return results;
+  }
+
+  // Without a timeout, waits until all the futures are done. false if the timeout expired first
+  private static boolean awaitUntil(
+      List<? extends CompletableFuture<?>> futures, Duration timeout) {
+    CompletableFuture<Void> all =
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    try {
+      if (timeout == null) {
+        all.get();
+      } else {
+        all.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    } catch (ExecutionException e) {
+      // Failed shops are reported one by one
+    } catch (TimeoutException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return true;
+  }
+
+  // The stages still pending when the deadline passed count as failed calls for the circuit
+  // breakers of their shops
+  private static void finish(RequestScope scope, boolean isComplete) {
+    if (isComplete) {
+      scope.cancel();
+    } else {
+      scope.expire();
+    }
+  }
+
+  // The shops whose circuit is open have already failed: answers without them
+  private static <T> Stream<CompletableFuture<T>> withoutUnavailableShops(
+      Stream<CompletableFuture<T>> futures) {
+    return futures.filter(future -> !isUnavailable(future));
+  }
+
+  private static boolean isUnavailable(CompletableFuture<?> future) {
+    if (!future.isCompletedExceptionally()) {
+      return false;
+    }
+    try {
+      future.join();
+      return false;
+    } catch (CompletionException e) {
+      return e.getCause() instanceof ShopUnavailableException;
+    } catch (CancellationException e) {
+      return false;
+    }
+  }
+
+  // The price of a shop is only written by its future, so once it is done the price is visible
+  private static void setStatuses(QuoteBatch batch, List<CompletableFuture<Void>> futures) {
+    for (int i = 0; i < futures.size(); i++) {
+      batch.setStatus(i, statusOf(futures.get(i)));
+    }
+  }
+
+  // The futures still pending are cancelled with the scope of their query
+  private static ShopResult.Status statusOf(CompletableFuture<?> future) {
+    if (!future.isDone()) {
+      return ShopResult.Status.TIMED_OUT;
+    }
+    try {
+      future.join();
+      return ShopResult.Status.SUCCEEDED;
+    } catch (CompletionException e) {
+      return failureStatusOf(e.getCause());
+    } catch (CancellationException e) {
+      return ShopResult.Status.FAILED;
+    }
+  }
+
+  private static ShopResult.Status failureStatusOf(Throwable cause) {
+    if (cause instanceof BulkheadFullException) {
+      return ShopResult.Status.REJECTED;
+    }
+    if (cause instanceof ShopUnavailableException) {
+      return ShopResult.Status.UNAVAILABLE;
+    }
+    return ShopResult.Status.FAILED;
+  }
+
+  private static <T> ShopResult<T> toShopResult(String shopName, CompletableFuture<T> future) {
+    if (!future.isDone()) {
+      return ShopResult.timedOut(shopName);
+    }
+    try {
+      return ShopResult.succeeded(shopName, future.join());
+    } catch (CompletionException e) {
+      switch (failureStatusOf(e.getCause())) {
+        case REJECTED:
+          return ShopResult.rejected(shopName, e.getCause());
+        case UNAVAILABLE:
+          return ShopResult.unavailable(shopName);
+        default:
+          return ShopResult.failed(shopName, e.getCause());
+      }
+    } catch (CancellationException e) {
+      return ShopResult.failed(shopName, e);
+    }
+  }
+
+  // Same text as String.format("%s price is %s", ...), without parsing the format every time
+  private static String priceText(String shopName, String priceWithDiscount) {
+    return shopName + " price is " + priceWithDiscount;
+  }
+
+  // Identifies a query, so every shop gives a single discount code per query
+  private static long newRequestId() {
+    return ThreadLocalRandom.current().nextLong();
+  }
+
+  private static Executor executorFor(ExecutionMode executionMode) {
+    switch (executionMode) {
+      case VIRTUAL_THREAD_PER_SHOP:
+        return VIRTUAL_THREAD_EXECUTOR;
+      case ADAPTIVE_THREAD_POOL:
+        return ADAPTIVE_EXECUTOR;
+      default:
+        return EXECUTOR;
+    }
+  }
+
+  private Stream<CompletableFuture<String>> findPricesWithDiscountStream(String product) {
+    return withoutUnavailableShops(
+        findPricesWithDiscountStream(this.shops, product, RequestScope.NONE));
+  }
+
+  // The text of every price is only built here, once its number is ready
+  private Stream<CompletableFuture<String>> findPricesWithDiscountStream(
+      List<Shop> shops, String product, RequestScope scope) {
+    return findDiscountedPricesStream(shops, product, scope)
+        .map(future -> scope.track(future.thenApply(DiscountedPrice::toString)));
+  }
+
+  private Stream<CompletableFuture<DiscountedPrice>> findDiscountedPricesStream(String product) {
+    return withoutUnavailableShops(
+        findDiscountedPricesStream(this.shops, product, RequestScope.NONE));
+  }
+
+  private Stream<CompletableFuture<DiscountedPrice>> findDiscountedPricesStream(
+      List<Shop> shops, String product, RequestScope scope) {
+    return findQuotesStream(shops, product, scope)
         .map(
             future ->
-                future.thenCompose(
-                    quote ->
-                        CompletableFuture.supplyAsync(
-                            () -> DiscountService.applyDiscount(quote, false), EXECUTOR)));
+                scope.track(
+                    future.thenCompose(
+                        quote ->
+                            scope.track(
+                                supplyWithExecutor(
+                                    scope.interruptible(
+                                        () ->
+                                            timed(
+                                                PipelineStage.DISCOUNT,
+                                                () -> DiscountService.discount(quote, false))))))));
+  }
+
+  // Every shop writes its quote into its own record of a buffer shared by the whole request
+  private Stream<CompletableFuture<Quote>> findQuotesStream(
+      List<Shop> shops, String product, RequestScope scope) {
+    ByteBuffer quotes = QuoteCodec.allocate(shops.size());
+    long requestId = newRequestId();
+    return IntStream.range(0, shops.size())
+        .mapToObj(
+            shopId -> {
+              Shop shop = shops.get(shopId);
+              return supplyForShop(
+                  shop,
+                  scope,
+                  () -> {
+                    long start = System.nanoTime();
+                    this.shopService.encodePriceWithDiscount(
+                        product, shop, shopId, quotes, requestId);
+                    this.metrics.recordSince(PipelineStage.PRICE_FETCH, start);
+                    return timed(
+                        PipelineStage.QUOTE_DECODE,
+                        () -> QuoteCodec.decode(quotes, shopId, shops));
+                  });
+            });
   }
 }
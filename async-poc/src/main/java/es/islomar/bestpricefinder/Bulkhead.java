@@ -0,0 +1,200 @@
+package es.islomar.bestpricefinder;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Limits the shop calls running on an Executor: maxConcurrentCalls at once in total, and
+ * maxCallsPerShop running or waiting for the same shop, so a slow shop cannot take every thread.
+ * Up to maxQueuedCalls more calls wait for a free slot in the bulkhead's own queue.
+ *
+ * <p>Calls beyond those limits fail right away with a {@link BulkheadFullException} instead of
+ * waiting in an unbounded queue: the latency and the memory of a burst stay bounded.
+ *
+ * <p>There are never more than maxConcurrentCalls shop calls in the Executor, but the bulkhead
+ * does not bound its queue: the other tasks submitted to the same Executor (e.g. the discounts of
+ * a BestPriceFinder built with a Bulkhead) are not limited by it.
+ */
+public class Bulkhead {
+
+  private final Executor executor;
+  private final int maxConcurrentCalls;
+  private final int maxCallsPerShop;
+  private final int maxAdmittedCalls;
+  private final Queue<Call<?>> queuedCalls = new ConcurrentLinkedQueue<>();
+  // Running plus queued calls, in total and per shop. Only the shops with calls admitted have a
+  // counter, so a registry of many shops does not leave one behind for every shop ever called
+  private final AtomicInteger admittedCalls = new AtomicInteger();
+  private final ConcurrentMap<String, Integer> admittedCallsByShop = new ConcurrentHashMap<>();
+  private final AtomicInteger runningCalls = new AtomicInteger();
+  private final LongAdder rejectedCalls = new LongAdder();
+
+  public Bulkhead(
+      Executor executor, int maxConcurrentCalls, int maxCallsPerShop, int maxQueuedCalls) {
+    if (maxConcurrentCalls < 1 || maxCallsPerShop < 1 || maxQueuedCalls < 0) {
+      throw new IllegalArgumentException("A bulkhead needs to admit one call at least");
+    }
+    this.executor = executor;
+    this.maxConcurrentCalls = maxConcurrentCalls;
+    this.maxCallsPerShop = maxCallsPerShop;
+    this.maxAdmittedCalls = maxConcurrentCalls + maxQueuedCalls;
+  }
+
+  public Executor getExecutor() {
+    return this.executor;
+  }
+
+  // Fails with a BulkheadFullException (without calling the shop) when the call is not admitted
+  public <T> CompletableFuture<T> supplyAsync(String shopName, Supplier<T> call) {
+    if (!tryAcquireShop(shopName)) {
+      return rejected("Too many calls to " + shopName);
+    }
+    if (!tryAcquire(this.admittedCalls, this.maxAdmittedCalls)) {
+      releaseShop(shopName);
+      return rejected("Too many calls in flight, " + shopName + " not called");
+    }
+
+    Call<T> admitted = new Call<>(call, shopName);
+    this.queuedCalls.add(admitted);
+    dispatch();
+    return admitted.result;
+  }
+
+  public int getRunningCalls() {
+    return this.runningCalls.get();
+  }
+
+  public int getQueuedCalls() {
+    return this.admittedCalls.get() - this.runningCalls.get();
+  }
+
+  public long getRejectedCalls() {
+    return this.rejectedCalls.sum();
+  }
+
+  // Shops with calls running or queued
+  int getShopsWithCalls() {
+    return this.admittedCallsByShop.size();
+  }
+
+  // Moves queued calls to the Executor while there are free slots
+  private void dispatch() {
+    while (!this.queuedCalls.isEmpty()) {
+      int running = this.runningCalls.get();
+      if (running >= this.maxConcurrentCalls) {
+        // The call holding the slot will dispatch again when it finishes
+        return;
+      }
+      if (!this.runningCalls.compareAndSet(running, running + 1)) {
+        continue;
+      }
+      Call<?> call = this.queuedCalls.poll();
+      if (call == null) {
+        // Taken by another thread: give the slot back and look again
+        this.runningCalls.decrementAndGet();
+        continue;
+      }
+      try {
+        this.executor.execute(call);
+      } catch (RuntimeException e) {
+        // Executor shut down or saturated: the call fails, but its slot must not be lost
+        call.fail(e);
+      }
+    }
+  }
+
+  // The counter of a shop is only updated under the lock of its entry, so it cannot be removed
+  // while another call is being admitted
+  private boolean tryAcquireShop(String shopName) {
+    boolean[] acquired = new boolean[1];
+    this.admittedCallsByShop.compute(
+        shopName,
+        (name, calls) -> {
+          int current = calls == null ? 0 : calls;
+          if (current >= this.maxCallsPerShop) {
+            return calls;
+          }
+          acquired[0] = true;
+          return current + 1;
+        });
+    return acquired[0];
+  }
+
+  // The counter is removed once it is back to zero
+  private void releaseShop(String shopName) {
+    this.admittedCallsByShop.computeIfPresent(
+        shopName, (name, calls) -> calls == 1 ? null : calls - 1);
+  }
+
+  private void release(String shopName) {
+    releaseShop(shopName);
+    this.admittedCalls.decrementAndGet();
+    this.runningCalls.decrementAndGet();
+  }
+
+  private <T> CompletableFuture<T> rejected(String message) {
+    this.rejectedCalls.increment();
+    return CompletableFuture.failedFuture(new BulkheadFullException(message));
+  }
+
+  private class Call<T> implements Runnable {
+
+    private final Supplier<T> call;
+    private final String shopName;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private Call(Supplier<T> call, String shopName) {
+      this.call = call;
+      this.shopName = shopName;
+    }
+
+    // The slot is released before the result is completed: the callbacks of the result (e.g. the
+    // next call to the same shop) already find it free
+    @Override
+    public void run() {
+      T value = null;
+      Throwable failure = null;
+      try {
+        // Cancelled while it was queued: nobody is waiting for it
+        if (!this.result.isDone()) {
+          value = this.call.get();
+        }
+      } catch (Throwable e) {
+        // Even an Error: a caller without a deadline would wait for the result forever
+        failure = e;
+      } finally {
+        release(this.shopName);
+        dispatch();
+      }
+      if (failure != null) {
+        this.result.completeExceptionally(failure);
+      } else {
+        this.result.complete(value);
+      }
+    }
+
+    private void fail(RuntimeException e) {
+      release(this.shopName);
+      this.result.completeExceptionally(e);
+    }
+  }
+
+  private static boolean tryAcquire(AtomicInteger calls, int maxCalls) {
+    while (true) {
+      int current = calls.get();
+      if (current >= maxCalls) {
+        return false;
+      }
+      if (calls.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+}
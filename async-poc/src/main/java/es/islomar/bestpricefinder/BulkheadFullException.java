@@ -0,0 +1,13 @@
+package es.islomar.bestpricefinder;
+
+import java.util.concurrent.RejectedExecutionException;
+
+// A shop call refused by a Bulkhead without waiting: the shop or the whole system is saturated
+public class BulkheadFullException extends RejectedExecutionException {
+
+  private static final long serialVersionUID = 1L;
+
+  public BulkheadFullException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,280 @@
+package es.islomar.bestpricefinder;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a shop that keeps failing or answering too slowly.
+ *
+ * <p>CLOSED: every call is permitted and its outcome goes to a sliding window of the last
+ * windowSize calls. Once the window has minimumCalls, a failure rate or a slow call rate at or
+ * above its threshold opens the circuit.
+ *
+ * <p>OPEN: no call is permitted (callers fail fast) until openDuration has elapsed. Then it turns
+ * HALF_OPEN: only halfOpenProbes calls are permitted; if all of them succeed the circuit closes
+ * again with an empty window, the first failure opens it again.
+ *
+ * <p>There are no locks: every state is an immutable phase swapped with a CAS, and the window is
+ * a ring of outcomes with atomic counters. The counters may lag one outcome behind while calls
+ * are being recorded.
+ */
+public class CircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private static final int SUCCESS = 1;
+  private static final int FAILURE = 2;
+  private static final int SLOW = 4;
+
+  private final int windowSize;
+  private final int minimumCalls;
+  private final double failureRateThreshold;
+  private final long slowCallNanos;
+  private final double slowCallRateThreshold;
+  private final long openNanos;
+  private final int halfOpenProbes;
+  private final LongSupplier nanoClock;
+  private final AtomicReference<Phase> phase;
+  private final LongAdder notPermittedCalls = new LongAdder();
+
+  public CircuitBreaker(
+      int windowSize,
+      int minimumCalls,
+      double failureRateThreshold,
+      Duration slowCallDuration,
+      double slowCallRateThreshold,
+      Duration openDuration,
+      int halfOpenProbes) {
+    this(
+        windowSize,
+        minimumCalls,
+        failureRateThreshold,
+        slowCallDuration,
+        slowCallRateThreshold,
+        openDuration,
+        halfOpenProbes,
+        System::nanoTime);
+  }
+
+  CircuitBreaker(
+      int windowSize,
+      int minimumCalls,
+      double failureRateThreshold,
+      Duration slowCallDuration,
+      double slowCallRateThreshold,
+      Duration openDuration,
+      int halfOpenProbes,
+      LongSupplier nanoClock) {
+    if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || halfOpenProbes < 1) {
+      throw new IllegalArgumentException("Invalid circuit breaker window or probes");
+    }
+    this.windowSize = windowSize;
+    this.minimumCalls = minimumCalls;
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallNanos = slowCallDuration.toNanos();
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.openNanos = openDuration.toNanos();
+    this.halfOpenProbes = halfOpenProbes;
+    this.nanoClock = nanoClock;
+    this.phase = new AtomicReference<>(closed());
+  }
+
+  // null if the call is not permitted. Every permitted call must be followed by onSuccess(),
+  // onFailure() or onCancelled() of its Permission, or by release() if it was not made after all
+  public Permission tryAcquirePermission() {
+    while (true) {
+      Phase current = this.phase.get();
+      switch (current.state) {
+        case CLOSED:
+          return new Permission(current);
+        case OPEN:
+          if (this.nanoClock.getAsLong() - current.since < this.openNanos) {
+            this.notPermittedCalls.increment();
+            return null;
+          }
+          // Only one thread turns it HALF_OPEN, all of them retry in the new phase
+          this.phase.compareAndSet(current, halfOpen());
+          break;
+        default:
+          if (tryDecrement(current.probesLeft)) {
+            return new Permission(current);
+          }
+          this.notPermittedCalls.increment();
+          return null;
+      }
+    }
+  }
+
+  public State getState() {
+    return this.phase.get().state;
+  }
+
+  // Of the calls in the current window; 0 unless CLOSED
+  public double getFailureRate() {
+    Window window = this.phase.get().window;
+    return window == null ? 0 : window.rate(window.failures);
+  }
+
+  public double getSlowCallRate() {
+    Window window = this.phase.get().window;
+    return window == null ? 0 : window.rate(window.slowCalls);
+  }
+
+  public long getNotPermittedCalls() {
+    return this.notPermittedCalls.sum();
+  }
+
+  // Only counts in the phase that permitted the call: the outcome of a call permitted before the
+  // circuit opened is never taken for a HALF_OPEN probe
+  private void record(Phase granted, int outcome) {
+    switch (granted.state) {
+      case CLOSED:
+        granted.window.record(outcome);
+        if (granted.window.calls() >= this.minimumCalls
+            && (granted.window.rate(granted.window.failures) >= this.failureRateThreshold
+                || granted.window.rate(granted.window.slowCalls) >= this.slowCallRateThreshold)) {
+          this.phase.compareAndSet(granted, open());
+        }
+        break;
+      case HALF_OPEN:
+        if ((outcome & (FAILURE | SLOW)) != 0) {
+          this.phase.compareAndSet(granted, open());
+        } else if (granted.probeSuccesses.incrementAndGet() >= this.halfOpenProbes) {
+          this.phase.compareAndSet(granted, closed());
+        }
+        break;
+      default:
+        // No call is permitted while OPEN
+    }
+  }
+
+  private int timed(int outcome, long durationNanos) {
+    return durationNanos >= this.slowCallNanos ? outcome | SLOW : outcome;
+  }
+
+  private Phase closed() {
+    return new Phase(State.CLOSED, this.nanoClock.getAsLong(), new Window(this.windowSize), 0);
+  }
+
+  private Phase open() {
+    return new Phase(State.OPEN, this.nanoClock.getAsLong(), null, 0);
+  }
+
+  private Phase halfOpen() {
+    return new Phase(State.HALF_OPEN, this.nanoClock.getAsLong(), null, this.halfOpenProbes);
+  }
+
+  private static boolean tryDecrement(AtomicInteger counter) {
+    while (true) {
+      int current = counter.get();
+      if (current <= 0) {
+        return false;
+      }
+      if (counter.compareAndSet(current, current - 1)) {
+        return true;
+      }
+    }
+  }
+
+  // The permission of a single call, tied to the phase that granted it: only the first outcome
+  // (or release) counts
+  public final class Permission {
+
+    private final Phase granted;
+    private final AtomicBoolean used = new AtomicBoolean();
+
+    private Permission(Phase granted) {
+      this.granted = granted;
+    }
+
+    public void onSuccess(long durationNanos) {
+      if (this.used.compareAndSet(false, true)) {
+        record(this.granted, timed(SUCCESS, durationNanos));
+      }
+    }
+
+    public void onFailure(long durationNanos) {
+      if (this.used.compareAndSet(false, true)) {
+        record(this.granted, timed(FAILURE, durationNanos));
+      }
+    }
+
+    // The call was abandoned by its caller (not because of the shop) after durationNanos: it
+    // counts as a slow call if it had already taken that long, otherwise it is released
+    public void onCancelled(long durationNanos) {
+      if (durationNanos < CircuitBreaker.this.slowCallNanos) {
+        release();
+      } else if (this.used.compareAndSet(false, true)) {
+        record(this.granted, SLOW);
+      }
+    }
+
+    // The call was not made: a HALF_OPEN probe is given back
+    public void release() {
+      if (this.used.compareAndSet(false, true) && this.granted.state == State.HALF_OPEN) {
+        this.granted.probesLeft.incrementAndGet();
+      }
+    }
+  }
+
+  private static class Phase {
+
+    private final State state;
+    private final long since;
+    // Only when CLOSED
+    private final Window window;
+    // Only when HALF_OPEN
+    private final AtomicInteger probesLeft;
+    private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+    private Phase(State state, long since, Window window, int probes) {
+      this.state = state;
+      this.since = since;
+      this.window = window;
+      this.probesLeft = new AtomicInteger(probes);
+    }
+  }
+
+  // The outcomes of the last calls: a new outcome takes the slot of the oldest one
+  private static class Window {
+
+    private final AtomicIntegerArray outcomes;
+    private final AtomicLong recordedCalls = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger slowCalls = new AtomicInteger();
+
+    private Window(int size) {
+      this.outcomes = new AtomicIntegerArray(size);
+    }
+
+    private void record(int outcome) {
+      int slot = (int) (this.recordedCalls.getAndIncrement() % this.outcomes.length());
+      int evicted = this.outcomes.getAndSet(slot, outcome);
+      this.failures.addAndGet(count(outcome, FAILURE) - count(evicted, FAILURE));
+      this.slowCalls.addAndGet(count(outcome, SLOW) - count(evicted, SLOW));
+    }
+
+    private int calls() {
+      return (int) Math.min(this.recordedCalls.get(), this.outcomes.length());
+    }
+
+    private double rate(AtomicInteger counter) {
+      int calls = calls();
+      return calls == 0 ? 0 : (double) counter.get() / calls;
+    }
+
+    private static int count(int outcome, int flag) {
+      return (outcome & flag) != 0 ? 1 : 0;
+    }
+  }
+}
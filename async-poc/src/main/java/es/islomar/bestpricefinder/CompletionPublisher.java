@@ -0,0 +1,176 @@
+package es.islomar.bestpricefinder;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the values of a group of futures in the order they complete, never sending more than
+ * the subscriber has requested.
+ *
+ * <p>The publisher is cold: every subscription starts its own futures, once onSubscribe has
+ * returned, and never if the subscription was cancelled in it. Values completed beyond the demand
+ * wait in a queue, which is bounded by the number of futures. The first failed future, or the
+ * failure to start them, terminates the subscription with onError and cancels the others, as does
+ * cancel().
+ *
+ * <p>Built from a query, every subscription runs it in a RequestScope of its own: cancelling the
+ * subscription also interrupts the stages of the query that are running.
+ */
+public class CompletionPublisher<T> implements Flow.Publisher<T> {
+
+  private final Function<RequestScope, List<CompletableFuture<T>>> query;
+
+  public CompletionPublisher(Supplier<List<CompletableFuture<T>>> futures) {
+    this(scope -> futures.get());
+  }
+
+  CompletionPublisher(Function<RequestScope, List<CompletableFuture<T>>> query) {
+    this.query = query;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super T> subscriber) {
+    Objects.requireNonNull(subscriber);
+    new CompletionSubscription<>(subscriber, this.query, new RequestScope()).start();
+  }
+
+  private static class CompletionSubscription<T> implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Function<RequestScope, List<CompletableFuture<T>>> query;
+    private final RequestScope scope;
+    private final Queue<T> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicLong requested = new AtomicLong();
+    // The futures not completed yet, plus one until the query has started all of them
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    // Serializes the calls to the subscriber: only the thread taking it from 0 runs drain()
+    private final AtomicInteger workInProgress = new AtomicInteger();
+    private volatile boolean terminated;
+    private volatile List<CompletableFuture<T>> futures = List.of();
+
+    private CompletionSubscription(
+        Flow.Subscriber<? super T> subscriber,
+        Function<RequestScope, List<CompletableFuture<T>>> query,
+        RequestScope scope) {
+      this.subscriber = subscriber;
+      this.query = query;
+      this.scope = scope;
+    }
+
+    private void start() {
+      this.subscriber.onSubscribe(this);
+      if (this.terminated) {
+        return;
+      }
+      List<CompletableFuture<T>> started;
+      try {
+        started = this.query.apply(this.scope);
+      } catch (RuntimeException e) {
+        this.error.compareAndSet(null, e);
+        drain();
+        return;
+      }
+      this.pending.addAndGet(started.size());
+      this.futures = started;
+      // Cancelled while the query was starting them
+      if (this.terminated) {
+        cancelFutures();
+        return;
+      }
+      for (CompletableFuture<T> future : started) {
+        future.whenComplete(
+            (value, ex) -> {
+              if (ex != null) {
+                this.error.compareAndSet(null, ex);
+              } else {
+                this.completed.offer(value);
+              }
+              this.pending.decrementAndGet();
+              drain();
+            });
+      }
+      this.pending.decrementAndGet();
+      drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        this.error.compareAndSet(
+            null, new IllegalArgumentException("Non-positive request: " + n));
+      } else {
+        this.requested.getAndAccumulate(n, (current, added) -> addCapped(current, added));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      this.terminated = true;
+      cancelFutures();
+    }
+
+    private void drain() {
+      if (this.workInProgress.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        if (this.terminated) {
+          this.completed.clear();
+          return;
+        }
+        Throwable failure = this.error.get();
+        if (failure != null) {
+          this.terminated = true;
+          cancelFutures();
+          this.subscriber.onError(failure);
+          return;
+        }
+        long demand = this.requested.get();
+        long emitted = 0;
+        while (emitted != demand && !this.terminated) {
+          T value = this.completed.poll();
+          if (value == null) {
+            break;
+          }
+          this.subscriber.onNext(value);
+          emitted++;
+        }
+        if (emitted > 0 && demand != Long.MAX_VALUE) {
+          this.requested.addAndGet(-emitted);
+        }
+        // A failed future sets the error before it stops being pending: check them in this order
+        if (!this.terminated
+            && this.pending.get() == 0
+            && this.completed.isEmpty()
+            && this.error.get() == null) {
+          this.terminated = true;
+          this.subscriber.onComplete();
+          return;
+        }
+        missed = this.workInProgress.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void cancelFutures() {
+      this.futures.forEach(future -> future.cancel(true));
+      this.scope.cancel();
+    }
+
+    private static long addCapped(long current, long added) {
+      long sum = current + added;
+      return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+  }
+}
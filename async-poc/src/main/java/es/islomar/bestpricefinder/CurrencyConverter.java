@@ -0,0 +1,86 @@
+package es.islomar.bestpricefinder;
+
+import es.islomar.bestpricefinder.model.Money;
+
+/**
+ * Converts whole arrays of prices between currencies with the rates of {@link Money}, computed
+ * once for every (source, destination) pair instead of once per price as {@link ExchangeService}
+ * does. It is also the bulk conversion of the rates fetched by {@link ExchangeRateProvider} and of
+ * the prices of a QuoteBatch.
+ *
+ * <p>The loops are kept simple (counted, no branches nor calls inside) so that C2 can unroll them
+ * and compile them to SIMD instructions: the Vector API needs a newer JDK than the one this
+ * project is built for.
+ */
+public class CurrencyConverter {
+
+  private static final Money[] CURRENCIES = Money.values();
+
+  // rates[source][destination], same values as ExchangeService.getRate()
+  private final double[][] rates = new double[CURRENCIES.length][CURRENCIES.length];
+
+  public CurrencyConverter() {
+    for (Money source : CURRENCIES) {
+      for (Money destination : CURRENCIES) {
+        this.rates[source.ordinal()][destination.ordinal()] =
+            destination.getRate() / source.getRate();
+      }
+    }
+  }
+
+  public double rate(Money source, Money destination) {
+    return this.rates[source.ordinal()][destination.ordinal()];
+  }
+
+  public double[] convert(double[] prices, Money source, Money destination) {
+    double[] converted = new double[prices.length];
+    convert(prices, source, destination, converted);
+    return converted;
+  }
+
+  // converted may be prices itself, to convert them in place
+  public void convert(double[] prices, Money source, Money destination, double[] converted) {
+    convert(prices, rate(source, destination), converted);
+  }
+
+  // Same as above, with a rate obtained elsewhere (e.g. from ExchangeRateProvider)
+  public static void convert(double[] prices, double rate, double[] converted) {
+    checkSameLength(prices, converted);
+    for (int i = 0; i < prices.length; i++) {
+      converted[i] = prices[i] * rate;
+    }
+  }
+
+  // Every price in its own currency, e.g. the answers of shops from several countries
+  public double[] convert(double[] prices, Money[] sources, Money destination) {
+    if (prices.length != sources.length) {
+      throw new IllegalArgumentException(
+          "One currency per price expected: " + prices.length + " != " + sources.length);
+    }
+    double[] ratesToDestination = new double[CURRENCIES.length];
+    for (Money source : CURRENCIES) {
+      ratesToDestination[source.ordinal()] = rate(source, destination);
+    }
+    double[] converted = new double[prices.length];
+    for (int i = 0; i < prices.length; i++) {
+      converted[i] = prices[i] * ratesToDestination[sources[i].ordinal()];
+    }
+    return converted;
+  }
+
+  // The prices in every currency, indexed by Money ordinal
+  public double[][] convertToAll(double[] prices, Money source) {
+    double[][] converted = new double[CURRENCIES.length][];
+    for (Money destination : CURRENCIES) {
+      converted[destination.ordinal()] = convert(prices, source, destination);
+    }
+    return converted;
+  }
+
+  private static void checkSameLength(double[] prices, double[] converted) {
+    if (prices.length != converted.length) {
+      throw new IllegalArgumentException(
+          "Arrays of different length: " + prices.length + " != " + converted.length);
+    }
+  }
+}
@@ -1,21 +1,57 @@
 package es.islomar.bestpricefinder;
 
 import static es.islomar.bestpricefinder.Util.delay;
-import static es.islomar.bestpricefinder.Util.format;
 
 import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.DiscountedPrice;
 import es.islomar.bestpricefinder.model.Quote;
+import java.util.concurrent.CompletableFuture;
 
 public class DiscountService {
 
+  // Same as discount(quote).toString(): prefer discount() and leave the text to the caller
   public static String applyDiscount(Quote quote, boolean isRandomDelay) {
-    return quote.getShopName()
-        + " price is "
-        + apply(quote.getPrice(), quote.getDiscountCode(), isRandomDelay);
+    return discount(quote, isRandomDelay).toString();
+  }
+
+  // Non-blocking version of applyDiscount(), see Util.delayAsync()
+  public static CompletableFuture<String> applyDiscountAsync(Quote quote, boolean isRandomDelay) {
+    return discountAsync(quote, isRandomDelay).thenApply(DiscountedPrice::toString);
+  }
+
+  public static DiscountedPrice discount(Quote quote, boolean isRandomDelay) {
+    return discount(
+        quote.getShopName(), quote.getPrice(), quote.getDiscountCode(), isRandomDelay);
+  }
+
+  public static DiscountedPrice discount(
+      String shopName, double price, DiscountCode code, boolean isRandomDelay) {
+    return new DiscountedPrice(shopName, price, code, apply(price, code, isRandomDelay));
+  }
+
+  // Non-blocking version of discount(), see Util.delayAsync()
+  public static CompletableFuture<DiscountedPrice> discountAsync(
+      Quote quote, boolean isRandomDelay) {
+    return Util.delayAsync(isRandomDelay)
+        .thenApply(
+            delayed ->
+                new DiscountedPrice(
+                    quote.getShopName(),
+                    quote.getPrice(),
+                    quote.getDiscountCode(),
+                    PriceRounding.toCents(discount(quote.getPrice(), quote.getDiscountCode()))));
+  }
+
+  public static double discountedPrice(Quote quote, boolean isRandomDelay) {
+    return apply(quote.getPrice(), quote.getDiscountCode(), isRandomDelay);
   }
 
   private static double apply(double price, DiscountCode code, boolean isRandomDelay) {
     delay(isRandomDelay);
-    return format(price * (100 - code.getPercentage()) / 100);
+    return PriceRounding.toCents(discount(price, code));
+  }
+
+  private static double discount(double price, DiscountCode code) {
+    return price * (100 - code.getPercentage()) / 100;
   }
 }
@@ -0,0 +1,104 @@
+package es.islomar.bestpricefinder;
+
+import es.islomar.bestpricefinder.model.Money;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Asynchronous exchange rates on top of {@link ExchangeService}, meant to be asked once per
+ * currency pair and request: all the shops of the request share the same future.
+ *
+ * <p>With a TTL, the future of every currency pair is also shared across requests until it
+ * expires. Failed rates are never shared.
+ */
+public class ExchangeRateProvider {
+
+  private static final int CURRENCIES = Money.values().length;
+
+  private final boolean isRandomDelay;
+  private final long ttlNanos;
+  private final Executor executor;
+  private final LongSupplier nanoClock;
+  // One slot per (source, destination) pair
+  private final AtomicReferenceArray<CachedRate> rates =
+      new AtomicReferenceArray<>(CURRENCIES * CURRENCIES);
+
+  public ExchangeRateProvider(boolean isRandomDelay) {
+    this(isRandomDelay, Duration.ZERO);
+  }
+
+  public ExchangeRateProvider(boolean isRandomDelay, Duration ttl) {
+    this(isRandomDelay, ttl, ForkJoinPool.commonPool(), System::nanoTime);
+  }
+
+  ExchangeRateProvider(
+      boolean isRandomDelay, Duration ttl, Executor executor, LongSupplier nanoClock) {
+    this.isRandomDelay = isRandomDelay;
+    this.ttlNanos = ttl.toNanos();
+    this.executor = executor;
+    this.nanoClock = nanoClock;
+  }
+
+  public CompletableFuture<Double> getRate(Money source, Money destination) {
+    if (this.ttlNanos <= 0) {
+      return fetchRate(source, destination);
+    }
+    int pair = source.ordinal() * CURRENCIES + destination.ordinal();
+    while (true) {
+      long now = this.nanoClock.getAsLong();
+      CachedRate cached = this.rates.get(pair);
+      if (cached != null && isFresh(cached, now)) {
+        return cached.rate;
+      }
+      CachedRate fetched = new CachedRate(new CompletableFuture<>(), now);
+      // Only the thread winning the race fetches the rate: the others retry and share its future
+      if (this.rates.compareAndSet(pair, cached, fetched)) {
+        fetchRate(source, destination)
+            .whenComplete(
+                (rate, ex) -> {
+                  if (ex != null) {
+                    fetched.rate.completeExceptionally(ex);
+                  } else {
+                    fetched.rate.complete(rate);
+                  }
+                });
+        return fetched.rate;
+      }
+    }
+  }
+
+  // Converts all the prices with a single rate lookup
+  public CompletableFuture<double[]> convert(double[] prices, Money source, Money destination) {
+    return getRate(source, destination)
+        .thenApply(
+            rate -> {
+              double[] converted = new double[prices.length];
+              CurrencyConverter.convert(prices, rate, converted);
+              return converted;
+            });
+  }
+
+  private boolean isFresh(CachedRate cached, long now) {
+    return now - cached.fetchedAt < this.ttlNanos && !cached.rate.isCompletedExceptionally();
+  }
+
+  private CompletableFuture<Double> fetchRate(Money source, Money destination) {
+    return CompletableFuture.supplyAsync(
+        () -> ExchangeService.getRate(source, destination, this.isRandomDelay), this.executor);
+  }
+
+  private static class CachedRate {
+
+    private final CompletableFuture<Double> rate;
+    private final long fetchedAt;
+
+    private CachedRate(CompletableFuture<Double> rate, long fetchedAt) {
+      this.rate = rate;
+      this.fetchedAt = fetchedAt;
+    }
+  }
+}
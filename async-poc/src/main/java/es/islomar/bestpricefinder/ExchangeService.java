@@ -3,6 +3,7 @@ package es.islomar.bestpricefinder;
 import static es.islomar.bestpricefinder.Util.delay;
 
 import es.islomar.bestpricefinder.model.Money;
+import java.util.concurrent.CompletableFuture;
 
 public class ExchangeService {
 
@@ -10,4 +11,11 @@ public class ExchangeService {
     delay(isRandomDelay);
     return destination.getRate() / source.getRate();
   }
+
+  // Non-blocking version of getRate(), see Util.delayAsync()
+  public static CompletableFuture<Double> getRateAsync(
+      Money source, Money destination, boolean isRandomDelay) {
+    return Util.delayAsync(isRandomDelay)
+        .thenApply(delayed -> destination.getRate() / source.getRate());
+  }
 }
@@ -0,0 +1,10 @@
+package es.islomar.bestpricefinder;
+
+public enum ExecutionMode {
+  // Shared fixed pool of platform threads, sized after the number of shops (max 100)
+  PLATFORM_THREAD_POOL,
+  // A new virtual thread for every shop call: no pool to size, blocking calls are cheap
+  VIRTUAL_THREAD_PER_SHOP,
+  // Shared pool of platform threads resized to the measured load, see AdaptiveExecutor
+  ADAPTIVE_THREAD_POOL
+}
@@ -0,0 +1,13 @@
+package es.islomar.bestpricefinder;
+
+// JMX view of the ThreadPoolExecutor running the shop calls of a BestPriceFinder
+public interface ExecutorStatsMXBean {
+
+  int getPoolSize();
+
+  int getActiveCount();
+
+  int getQueuedCount();
+
+  long getCompletedCount();
+}
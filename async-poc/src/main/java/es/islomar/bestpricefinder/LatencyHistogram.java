@@ -0,0 +1,123 @@
+package es.islomar.bestpricefinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies (in nanoseconds) counted in log-linear buckets: every power of two is split in 16
+ * buckets, so percentiles are within 1/16 (6.25%) of the real value whatever the magnitude.
+ *
+ * <p>Recording is an increment of one bucket with a CAS, without locks or allocation; reads scan
+ * all the buckets, so percentiles of a histogram being recorded are approximate.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Values below SUB_BUCKETS have a bucket each, then SUB_BUCKETS per power of two
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    this.counts.incrementAndGet(bucketOf(value));
+    this.totalNanos.add(value);
+    this.maxNanos.accumulate(value);
+  }
+
+  // Records the time elapsed since startNanos (a System.nanoTime())
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  @Override
+  public long getCount() {
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      count += this.counts.get(bucket);
+    }
+    return count;
+  }
+
+  @Override
+  public double getMeanMillis() {
+    long count = getCount();
+    return count == 0 ? 0 : toMillis(this.totalNanos.sum()) / count;
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return toMillis(this.maxNanos.get());
+  }
+
+  @Override
+  public double getP50Millis() {
+    return toMillis(percentile(50));
+  }
+
+  @Override
+  public double getP90Millis() {
+    return toMillis(percentile(90));
+  }
+
+  @Override
+  public double getP99Millis() {
+    return toMillis(percentile(99));
+  }
+
+  @Override
+  public double getP999Millis() {
+    return toMillis(percentile(99.9));
+  }
+
+  // Upper bound of the bucket holding the value, in nanoseconds; 0 if nothing was recorded
+  public long percentile(double percentile) {
+    long[] snapshot = new long[BUCKETS];
+    long count = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      snapshot[bucket] = this.counts.get(bucket);
+      count += snapshot[bucket];
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += snapshot[bucket];
+      if (seen >= rank) {
+        return Math.min(highestValueOf(bucket), this.maxNanos.get());
+      }
+    }
+    return this.maxNanos.get();
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int powerOfTwo = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int shift = powerOfTwo - SUB_BUCKET_BITS;
+    // The SUB_BUCKET_BITS bits after the leading one
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  private static double toMillis(long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,19 @@
+package es.islomar.bestpricefinder;
+
+// JMX view of a LatencyHistogram: percentiles are in milliseconds
+public interface LatencyHistogramMXBean {
+
+  long getCount();
+
+  double getMeanMillis();
+
+  double getMaxMillis();
+
+  double getP50Millis();
+
+  double getP90Millis();
+
+  double getP99Millis();
+
+  double getP999Millis();
+}
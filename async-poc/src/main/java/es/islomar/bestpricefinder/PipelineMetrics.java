@@ -0,0 +1,119 @@
+package es.islomar.bestpricefinder;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A latency histogram per {@link PipelineStage} of a BestPriceFinder, plus the counters of its
+ * Executor. Nothing is visible over JMX until {@link #registerMBeans(String)} is called, so short
+ * lived finders (e.g. in tests) do not leak MBeans.
+ */
+public class PipelineMetrics {
+
+  private static final String DOMAIN = "es.islomar.bestpricefinder";
+
+  private final Map<PipelineStage, LatencyHistogram> histograms =
+      new EnumMap<>(PipelineStage.class);
+  private final Executor executor;
+  private final List<ObjectName> registeredNames = new ArrayList<>();
+
+  public PipelineMetrics(Executor executor) {
+    for (PipelineStage stage : PipelineStage.values()) {
+      this.histograms.put(stage, new LatencyHistogram());
+    }
+    this.executor = executor;
+  }
+
+  public LatencyHistogram histogram(PipelineStage stage) {
+    return this.histograms.get(stage);
+  }
+
+  public void recordSince(PipelineStage stage, long startNanos) {
+    this.histograms.get(stage).recordSince(startNanos);
+  }
+
+  /**
+   * Registers "es.islomar.bestpricefinder:type=PipelineStage,finder=name,name=STAGE" for every
+   * stage, and "...:type=Executor,finder=name" if the Executor is a ThreadPoolExecutor (a virtual
+   * thread per task executor has no pool nor queue to report), plus "...:type=AdaptiveExecutor,
+   * finder=name" with the sizing decisions of an AdaptiveExecutor.
+   */
+  public synchronized void registerMBeans(String finderName) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      for (PipelineStage stage : PipelineStage.values()) {
+        register(
+            server,
+            this.histograms.get(stage),
+            DOMAIN + ":type=PipelineStage,finder=" + finderName + ",name=" + stage);
+      }
+      if (this.executor instanceof ThreadPoolExecutor) {
+        register(
+            server,
+            new ExecutorStats((ThreadPoolExecutor) this.executor),
+            DOMAIN + ":type=Executor,finder=" + finderName);
+      }
+      if (this.executor instanceof AdaptiveExecutor) {
+        register(server, this.executor, DOMAIN + ":type=AdaptiveExecutor,finder=" + finderName);
+      }
+    } catch (JMException e) {
+      unregisterMBeans();
+      throw new IllegalStateException("Cannot register the MBeans of " + finderName, e);
+    }
+  }
+
+  public synchronized void unregisterMBeans() {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName name : this.registeredNames) {
+      try {
+        server.unregisterMBean(name);
+      } catch (JMException e) {
+        // Already unregistered by someone else
+      }
+    }
+    this.registeredNames.clear();
+  }
+
+  private void register(MBeanServer server, Object mbean, String name) throws JMException {
+    ObjectName objectName = new ObjectName(name);
+    server.registerMBean(mbean, objectName);
+    this.registeredNames.add(objectName);
+  }
+
+  private static class ExecutorStats implements ExecutorStatsMXBean {
+
+    private final ThreadPoolExecutor executor;
+
+    private ExecutorStats(ThreadPoolExecutor executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public int getPoolSize() {
+      return this.executor.getPoolSize();
+    }
+
+    @Override
+    public int getActiveCount() {
+      return this.executor.getActiveCount();
+    }
+
+    @Override
+    public int getQueuedCount() {
+      return this.executor.getQueue().size();
+    }
+
+    @Override
+    public long getCompletedCount() {
+      return this.executor.getCompletedTaskCount();
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package es.islomar.bestpricefinder;
+
+// The steps a query of BestPriceFinder spends its time in, see PipelineMetrics
+public enum PipelineStage {
+  // From the submission of a task to the Executor until a thread starts running it
+  QUEUE_WAIT,
+  PRICE_FETCH,
+  QUOTE_DECODE,
+  DISCOUNT,
+  // The caller waiting for the last shop
+  JOIN
+}
@@ -0,0 +1,146 @@
+package es.islomar.bestpricefinder;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Prices by (shop, product), valid for a TTL and bounded in size with an LRU eviction policy.
+ *
+ * <p>Hits never wait for a lock: the prices are read from a ConcurrentHashMap and every hit is
+ * recorded in a buffer. The LRU order is a LinkedHashMap in access order, guarded by a lock: the
+ * buffered hits are replayed into it by whoever takes the lock, a hit only if nobody holds it. When
+ * the buffer is full, hits are not recorded until it is drained, so under heavy contention the
+ * order is close to, not exactly, LRU. Loaded prices are written under the lock, never while they
+ * are being calculated.
+ */
+public class PriceCache {
+
+  // Hits recorded at most before they are replayed into the LRU order
+  private static final int MAX_BUFFERED_HITS = 1024;
+
+  private final long ttlNanos;
+  private final int maximumSize;
+  private final LongSupplier nanoClock;
+  private final ConcurrentMap<PriceKey, CachedPrice> prices = new ConcurrentHashMap<>();
+  // Same prices as above, least recently used first. Only used under evictionLock
+  private final LinkedHashMap<PriceKey, CachedPrice> lruOrder =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final Queue<CachedPrice> bufferedHits = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger bufferedHitCount = new AtomicInteger();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public PriceCache(Duration ttl, int maximumSize) {
+    this(ttl, maximumSize, System::nanoTime);
+  }
+
+  PriceCache(Duration ttl, int maximumSize, LongSupplier nanoClock) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+    }
+    this.ttlNanos = ttl.toNanos();
+    this.maximumSize = maximumSize;
+    this.nanoClock = nanoClock;
+  }
+
+  public double get(String shopName, String product, DoubleSupplier loader) {
+    PriceKey key = new PriceKey(shopName, product);
+    CachedPrice cached = this.prices.get(key);
+    if (cached != null && this.nanoClock.getAsLong() - cached.createdAt < this.ttlNanos) {
+      this.hits.increment();
+      recordHit(cached);
+      return cached.price;
+    }
+    this.misses.increment();
+    double price = loader.getAsDouble();
+    put(new CachedPrice(key, price, this.nanoClock.getAsLong()));
+    return price;
+  }
+
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  public long getMisses() {
+    return this.misses.sum();
+  }
+
+  public long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  public int size() {
+    return this.prices.size();
+  }
+
+  private void recordHit(CachedPrice cached) {
+    if (this.bufferedHitCount.incrementAndGet() > MAX_BUFFERED_HITS) {
+      this.bufferedHitCount.decrementAndGet();
+    } else {
+      this.bufferedHits.offer(cached);
+    }
+    if (this.evictionLock.tryLock()) {
+      try {
+        drainHits();
+      } finally {
+        this.evictionLock.unlock();
+      }
+    }
+  }
+
+  // Replaces the expired price of the same key, if any
+  private void put(CachedPrice loaded) {
+    this.evictionLock.lock();
+    try {
+      drainHits();
+      this.prices.put(loaded.key, loaded);
+      this.lruOrder.put(loaded.key, loaded);
+      Iterator<Map.Entry<PriceKey, CachedPrice>> leastRecentlyUsed =
+          this.lruOrder.entrySet().iterator();
+      while (this.lruOrder.size() > this.maximumSize) {
+        PriceKey evicted = leastRecentlyUsed.next().getKey();
+        leastRecentlyUsed.remove();
+        this.prices.remove(evicted);
+        this.evictions.increment();
+      }
+    } finally {
+      this.evictionLock.unlock();
+    }
+  }
+
+  // Only under evictionLock: get() moves the key to the most recently used end. The hits on a
+  // price evicted meanwhile are ignored
+  private void drainHits() {
+    CachedPrice hit;
+    while ((hit = this.bufferedHits.poll()) != null) {
+      this.bufferedHitCount.decrementAndGet();
+      this.lruOrder.get(hit.key);
+    }
+  }
+
+  private static class CachedPrice {
+
+    private final PriceKey key;
+    private final double price;
+    private final long createdAt;
+
+    private CachedPrice(PriceKey key, double price, long createdAt) {
+      this.key = key;
+      this.price = price;
+      this.createdAt = createdAt;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package es.islomar.bestpricefinder;
+
+import java.util.Objects;
+
+// (shop, product) pair
+class PriceKey {
+
+  private final String shopName;
+  private final String product;
+
+  PriceKey(String shopName, String product) {
+    this.shopName = shopName;
+    this.product = product;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PriceKey)) {
+      return false;
+    }
+    PriceKey other = (PriceKey) o;
+    return Objects.equals(this.shopName, other.shopName) && this.product.equals(other.product);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Objects.hashCode(this.shopName) + this.product.hashCode();
+  }
+}
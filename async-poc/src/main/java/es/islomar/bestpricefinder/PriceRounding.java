@@ -0,0 +1,47 @@
+package es.islomar.bestpricefinder;
+
+/**
+ * Rounds prices to two decimals with HALF_EVEN, giving exactly the same doubles as formatting with
+ * {@code new DecimalFormat("#.##")} and parsing the text again, but without locks, Strings or any
+ * other allocation.
+ *
+ * <p>DecimalFormat rounds the exact binary value of the double, not its shortest decimal text
+ * (2.675 is really 2.67499999..., so it becomes 2.67). Math.fma() computes {@code value * 100 -
+ * midpoint} with a single rounding, so its sign tells exactly on which side of the midpoint the
+ * value is, and a zero means a real tie.
+ */
+public class PriceRounding {
+
+  // Below 2^45, value * 100 stays under 2^52, where every midpoint "n + 0.5" is a double
+  private static final double SCALED_LIMIT = 0x1p45;
+  // From 2^52 on, every double is an integer
+  private static final double INTEGER_LIMIT = 0x1p52;
+
+  private PriceRounding() {}
+
+  public static double toCents(double value) {
+    double abs = Math.abs(value);
+    if (abs < SCALED_LIMIT) {
+      return Math.copySign(roundedCents(abs) / 100.0, value);
+    }
+    if (abs < INTEGER_LIMIT) {
+      // Only the fraction needs rounding; ulp(abs) >= 1/128 makes the sum correctly rounded
+      double integerPart = Math.floor(abs);
+      return Math.copySign(integerPart + roundedCents(abs - integerPart) / 100.0, value);
+    }
+    // Integers, infinities and NaN
+    return value;
+  }
+
+  private static double roundedCents(double abs) {
+    double floor = Math.floor(abs * 100);
+    double distanceToMidpoint = Math.fma(abs, 100, -(floor + 0.5));
+    if (distanceToMidpoint > 0) {
+      return floor + 1;
+    }
+    if (distanceToMidpoint < 0) {
+      return floor;
+    }
+    return floor % 2 == 0 ? floor : floor + 1;
+  }
+}
@@ -0,0 +1,212 @@
+package es.islomar.bestpricefinder;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * What a single query has in flight: the futures of its stages and the threads running them.
+ * cancel() cancels the futures, so the stages not started yet never run, and interrupts the
+ * threads, so the ones running (e.g. sleeping in a shop call) give their thread back right away.
+ *
+ * <p>CompletableFuture.cancel() alone does neither: it only completes the future, the task behind
+ * it keeps its thread until it finishes.
+ */
+class RequestScope {
+
+  // Tracks nothing, for the queries that cannot be cancelled
+  static final RequestScope NONE = new RequestScope(false);
+  // The task of a scope the current thread is running, if any
+  private static final ThreadLocal<RunningTask> CURRENT_TASK = new ThreadLocal<>();
+
+  private final boolean isTracking;
+  private final Set<CompletableFuture<?>> futures = ConcurrentHashMap.newKeySet();
+  private final Set<RunningTask> runningTasks = ConcurrentHashMap.newKeySet();
+  private volatile boolean cancelled;
+  private volatile boolean expired;
+
+  RequestScope() {
+    this(true);
+  }
+
+  private RequestScope(boolean isTracking) {
+    this.isTracking = isTracking;
+  }
+
+  // Cancelled right away if the scope already is
+  <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+    if (!this.isTracking) {
+      return future;
+    }
+    this.futures.add(future);
+    future.whenComplete((value, ex) -> this.futures.remove(future));
+    if (this.cancelled) {
+      future.cancel(true);
+    }
+    return future;
+  }
+
+  // The task fails with a CancellationException if the scope is cancelled before or while it runs
+  <T> Supplier<T> interruptible(Supplier<T> task) {
+    if (!this.isTracking) {
+      return task;
+    }
+    return () -> {
+      RunningTask runningTask = new RunningTask(Thread.currentThread());
+      RunningTask outerTask = CURRENT_TASK.get();
+      CURRENT_TASK.set(runningTask);
+      this.runningTasks.add(runningTask);
+      try {
+        if (this.cancelled) {
+          throw new CancellationException("The request was cancelled");
+        }
+        return task.get();
+      } catch (RuntimeException e) {
+        if (this.cancelled && !(e instanceof CancellationException)) {
+          CancellationException cancelled = new CancellationException("The request was cancelled");
+          cancelled.initCause(e);
+          throw cancelled;
+        }
+        throw e;
+      } finally {
+        this.runningTasks.remove(runningTask);
+        runningTask.finish();
+        CURRENT_TASK.set(outerTask);
+      }
+    };
+  }
+
+  /**
+   * Lets the task running in the current thread calculate something other tasks (of any scope)
+   * may be waiting for, e.g. a price shared by several queries. Until the Shield is closed,
+   * cancelling the scope of the task does not interrupt it: it runs onCancel instead, and the
+   * task is only interrupted by Shield.interrupt() (e.g. once nobody waits for the result).
+   *
+   * <p>Outside of a task of a scope there is nothing to shield from: the Shield does nothing.
+   */
+  static Shield shield(Runnable onCancel) {
+    RunningTask runningTask = CURRENT_TASK.get();
+    if (runningTask == null) {
+      return Shield.NONE;
+    }
+    Shield shield = new Shield(runningTask, onCancel);
+    runningTask.shield(shield);
+    return shield;
+  }
+
+  Runnable interruptible(Runnable task) {
+    if (!this.isTracking) {
+      return task;
+    }
+    Supplier<Void> interruptible =
+        interruptible(
+            () -> {
+              task.run();
+              return null;
+            });
+    return interruptible::get;
+  }
+
+  void cancel() {
+    this.cancelled = true;
+    this.futures.forEach(future -> future.cancel(true));
+    this.runningTasks.forEach(RunningTask::interrupt);
+  }
+
+  // Same as cancel(), because the deadline of the query has passed: the stages still running took
+  // too long
+  void expire() {
+    this.expired = true;
+    cancel();
+  }
+
+  boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  boolean isExpired() {
+    return this.expired;
+  }
+
+  int getRunningTasks() {
+    return this.runningTasks.size();
+  }
+
+  static class Shield implements AutoCloseable {
+
+    private static final Shield NONE = new Shield(null, () -> {});
+
+    private final RunningTask runningTask;
+    private final Runnable onCancel;
+
+    private Shield(RunningTask runningTask, Runnable onCancel) {
+      this.runningTask = runningTask;
+      this.onCancel = onCancel;
+    }
+
+    // Only while the Shield is open
+    void interrupt() {
+      if (this.runningTask != null) {
+        this.runningTask.interruptShielded(this);
+      }
+    }
+
+    @Override
+    public void close() {
+      if (this.runningTask != null) {
+        this.runningTask.shield(null);
+      }
+    }
+  }
+
+  // The lock makes sure a thread is never interrupted once it has moved on to another task.
+  // onCancel runs out of it: it may take the locks of the calculation the task shares
+  private static class RunningTask {
+
+    private Thread thread;
+    private boolean interrupted;
+    private Shield shield;
+
+    private RunningTask(Thread thread) {
+      this.thread = thread;
+    }
+
+    private void interrupt() {
+      Shield shielded;
+      synchronized (this) {
+        if (this.thread == null) {
+          return;
+        }
+        shielded = this.shield;
+        if (shielded == null) {
+          this.interrupted = true;
+          this.thread.interrupt();
+          return;
+        }
+      }
+      shielded.onCancel.run();
+    }
+
+    private synchronized void shield(Shield shield) {
+      this.shield = shield;
+    }
+
+    private synchronized void interruptShielded(Shield shield) {
+      if (this.thread != null && this.shield == shield) {
+        this.interrupted = true;
+        this.thread.interrupt();
+      }
+    }
+
+    // Called by the thread itself: it goes back to its pool without the interrupt meant for the
+    // task
+    private synchronized void finish() {
+      this.thread = null;
+      if (this.interrupted) {
+        Thread.interrupted();
+      }
+    }
+  }
+}
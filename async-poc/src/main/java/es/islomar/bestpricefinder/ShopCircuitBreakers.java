@@ -0,0 +1,21 @@
+package es.islomar.bestpricefinder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+// A CircuitBreaker per shop name, all of them created by the same factory
+public class ShopCircuitBreakers {
+
+  private final Supplier<CircuitBreaker> circuitBreakerFactory;
+  private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+  public ShopCircuitBreakers(Supplier<CircuitBreaker> circuitBreakerFactory) {
+    this.circuitBreakerFactory = circuitBreakerFactory;
+  }
+
+  public CircuitBreaker forShop(String shopName) {
+    return this.circuitBreakers.computeIfAbsent(
+        shopName, name -> this.circuitBreakerFactory.get());
+  }
+}
@@ -0,0 +1,263 @@
+package es.islomar.bestpricefinder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.LatencyProfile;
+import es.islomar.bestpricefinder.model.Shop;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Shop definitions (name, discount profile and latency profile) read from a memory-mapped file, so
+ * hundreds of thousands of shops cost a few bytes each and no Shop object until they are used.
+ *
+ * <p>File layout: a header (magic, version, shop count), the offset of every record indexed by
+ * shop id, and the records: name length (1 byte), UTF-8 name, max discount code ordinal (1 byte),
+ * min and max latency in msecs (2 bytes each, -1 when the ShopService decides it).
+ *
+ * <p>Only the name index (an int per slot of an open addressing table) lives in the heap. The
+ * mapped buffer is only read with absolute positions, so the registry is safe to share between
+ * threads.
+ */
+public class ShopRegistry {
+
+  private static final int MAGIC = 0x53484F50; // "SHOP"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 3 * Integer.BYTES;
+  private static final int MAX_NAME_BYTES = 255;
+  private static final short NO_LATENCY_PROFILE = -1;
+
+  private final ByteBuffer shops;
+  private final int size;
+  // id + 1 of the shop whose name hashes to every slot, 0 if the slot is empty
+  private final int[] idsByName;
+  private final int mask;
+  private final List<Shop> shopList = new ShopList();
+
+  private ShopRegistry(ByteBuffer shops) {
+    this.shops = shops;
+    this.size = shops.getInt(2 * Integer.BYTES);
+    // Power of two and at most half full, so probe sequences stay short
+    int slots = Integer.highestOneBit(Math.max(this.size, 1)) << 2;
+    this.idsByName = new int[slots];
+    this.mask = slots - 1;
+    for (int id = 0; id < this.size; id++) {
+      index(id);
+    }
+  }
+
+  public static ShopRegistry load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      ByteBuffer shops = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (shops.capacity() < HEADER_SIZE
+          || shops.getInt(0) != MAGIC
+          || shops.getInt(Integer.BYTES) != VERSION) {
+        throw new IOException("Not a shop registry: " + file);
+      }
+      checkRecords(shops, file);
+      return new ShopRegistry(shops);
+    }
+  }
+
+  // Shop names must be unique, the id of every shop is its position in shops
+  public static void write(Path file, List<Shop> shops) throws IOException {
+    byte[][] names = new byte[shops.size()][];
+    Set<String> distinctNames = new HashSet<>();
+    int recordsSize = 0;
+    for (int id = 0; id < shops.size(); id++) {
+      Shop shop = shops.get(id);
+      if (!distinctNames.add(shop.getName())) {
+        throw new IllegalArgumentException("Duplicated shop name: " + shop.getName());
+      }
+      names[id] = shop.getName().getBytes(UTF_8);
+      if (names[id].length > MAX_NAME_BYTES) {
+        throw new IllegalArgumentException("Shop name too long: " + shop.getName());
+      }
+      recordsSize += recordSize(names[id].length);
+    }
+
+    int recordsOffset = HEADER_SIZE + shops.size() * Integer.BYTES;
+    ByteBuffer buffer = ByteBuffer.allocate(recordsOffset + recordsSize);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(shops.size());
+    int offset = recordsOffset;
+    for (int id = 0; id < shops.size(); id++) {
+      buffer.putInt(offset);
+      offset += recordSize(names[id].length);
+    }
+    for (int id = 0; id < shops.size(); id++) {
+      Shop shop = shops.get(id);
+      LatencyProfile latencyProfile = shop.getLatencyProfile();
+      buffer
+          .put((byte) names[id].length)
+          .put(names[id])
+          .put((byte) shop.getMaxDiscountCode().ordinal());
+      if (latencyProfile == null) {
+        buffer.putShort(NO_LATENCY_PROFILE).putShort(NO_LATENCY_PROFILE);
+      } else {
+        buffer
+            .putShort(millis(latencyProfile.getMinMillis()))
+            .putShort(millis(latencyProfile.getMaxMillis()));
+      }
+    }
+    buffer.flip();
+
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  // A new Shop every time: the registry keeps no Shop objects
+  public Shop getShop(int id) {
+    Objects.checkIndex(id, this.size);
+    int offset = recordOffset(id);
+    int nameLength = nameLength(offset);
+    byte[] name = new byte[nameLength];
+    for (int i = 0; i < nameLength; i++) {
+      name[i] = this.shops.get(offset + 1 + i);
+    }
+    int profileOffset = offset + 1 + nameLength;
+    DiscountCode maxDiscountCode = DiscountCode.fromOrdinal(this.shops.get(profileOffset));
+    short minLatency = this.shops.getShort(profileOffset + 1);
+    short maxLatency = this.shops.getShort(profileOffset + 1 + Short.BYTES);
+    LatencyProfile latencyProfile =
+        minLatency == NO_LATENCY_PROFILE ? null : new LatencyProfile(minLatency, maxLatency);
+    return new Shop(new String(name, UTF_8), maxDiscountCode, latencyProfile);
+  }
+
+  // -1 if there is no shop with that name
+  public int idOf(String name) {
+    byte[] bytes = name.getBytes(UTF_8);
+    for (int slot = hash(bytes) & this.mask; ; slot = (slot + 1) & this.mask) {
+      int id = this.idsByName[slot] - 1;
+      if (id < 0) {
+        return -1;
+      }
+      if (hasName(id, bytes)) {
+        return id;
+      }
+    }
+  }
+
+  public Optional<Shop> findShop(String name) {
+    int id = idOf(name);
+    return id < 0 ? Optional.empty() : Optional.of(getShop(id));
+  }
+
+  // Read-only view indexed by shop id, e.g. the shops of a BestPriceFinder
+  public List<Shop> asList() {
+    return this.shopList;
+  }
+
+  private void index(int id) {
+    int offset = recordOffset(id);
+    int hash = 0;
+    for (int i = 0, nameLength = nameLength(offset); i < nameLength; i++) {
+      hash = 31 * hash + this.shops.get(offset + 1 + i);
+    }
+    int slot = spread(hash) & this.mask;
+    while (this.idsByName[slot] != 0) {
+      slot = (slot + 1) & this.mask;
+    }
+    this.idsByName[slot] = id + 1;
+  }
+
+  private boolean hasName(int id, byte[] name) {
+    int offset = recordOffset(id);
+    if (nameLength(offset) != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (this.shops.get(offset + 1 + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int recordOffset(int id) {
+    return this.shops.getInt(HEADER_SIZE + id * Integer.BYTES);
+  }
+
+  private int nameLength(int recordOffset) {
+    return this.shops.get(recordOffset) & 0xFF;
+  }
+
+  // The registry reads the records without bounds checks of its own: a truncated or corrupt file
+  // must fail here, not with an IndexOutOfBoundsException when a shop is looked up
+  private static void checkRecords(ByteBuffer shops, Path file) throws IOException {
+    int size = shops.getInt(2 * Integer.BYTES);
+    long recordsOffset = HEADER_SIZE + (long) size * Integer.BYTES;
+    if (size < 0 || recordsOffset > shops.limit()) {
+      throw new IOException("Corrupt shop registry, " + size + " shops: " + file);
+    }
+    for (int id = 0; id < size; id++) {
+      int offset = shops.getInt(HEADER_SIZE + id * Integer.BYTES);
+      if (offset < recordsOffset
+          || offset >= shops.limit()
+          || (long) offset + recordSize(shops.get(offset) & 0xFF) > shops.limit()) {
+        throw new IOException("Corrupt shop registry, record of shop " + id + ": " + file);
+      }
+    }
+  }
+
+  private static int hash(byte[] name) {
+    int hash = 0;
+    for (byte b : name) {
+      hash = 31 * hash + b;
+    }
+    return spread(hash);
+  }
+
+  // Names that only differ at the end must not fall in neighbouring slots
+  private static int spread(int hash) {
+    return (hash ^ (hash >>> 16)) * 0x45D9F3B;
+  }
+
+  private static int recordSize(int nameLength) {
+    return Byte.BYTES + nameLength + Byte.BYTES + 2 * Short.BYTES;
+  }
+
+  private static short millis(int millis) {
+    if (millis > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Latency too high: " + millis + " msecs");
+    }
+    return (short) millis;
+  }
+
+  private class ShopList extends AbstractList<Shop> implements RandomAccess {
+
+    @Override
+    public Shop get(int id) {
+      return getShop(id);
+    }
+
+    @Override
+    public int size() {
+      return ShopRegistry.this.size;
+    }
+  }
+}
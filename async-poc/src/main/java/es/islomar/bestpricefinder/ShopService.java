@@ -2,14 +2,35 @@ package es.islomar.bestpricefinder;
 
 import static es.islomar.bestpricefinder.Util.delay;
 
+import es.islomar.bestpricefinder.model.LatencyProfile;
+import es.islomar.bestpricefinder.model.QuoteCodec;
 import es.islomar.bestpricefinder.model.Shop;
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ShopService {
 
+  // Default for getPriceAsync(): a virtual thread per call (reused pooled threads before Java 21)
+  private static final ExecutorService ASYNC_EXECUTOR = VirtualThreads.newThreadPerTaskExecutor();
+  // Every price calculation is logged: the pricing threads must not fight for System.out
+  private static final AsyncLogger LOGGER = new AsyncLogger(System.out, 8192);
+
   private final boolean isRandomDelay;
+  // Optional: without it every call pays the whole calculation delay
+  private final PriceCache priceCache;
+  // Concurrent lookups of the same (shop, product) wait for the calculation already running
+  private final ConcurrentMap<PriceKey, SharedPrice> pricesInFlight = new ConcurrentHashMap<>();
+  private final LongAdder coalescedCalls = new LongAdder();
+  private final ExecutorService asyncExecutor;
   private boolean shouldCancel;
   private boolean shouldThrowShopException;
   private boolean shouldThrowRuntimeException;
@@ -19,16 +40,54 @@ public class ShopService {
   }
 
   public ShopService(boolean isRandomDelay) {
+    this(isRandomDelay, null);
+  }
+
+  public ShopService(boolean isRandomDelay, PriceCache priceCache) {
+    this(isRandomDelay, priceCache, ASYNC_EXECUTOR);
+  }
+
+  public ShopService(
+      boolean isRandomDelay, PriceCache priceCache, ExecutorService asyncExecutor) {
     this.isRandomDelay = isRandomDelay;
+    this.priceCache = priceCache;
+    this.asyncExecutor = asyncExecutor;
   }
 
   public String getPriceWithDiscount(String product, Shop shop) {
-    double price = calculatePrice(product);
+    double price = cachedPrice(shop, product);
     return shop.getName() + ":" + price + ":" + shop.getDiscountCode();
   }
 
+  // Same as getPriceWithDiscount() but writing the binary record of shopId into quotes (see
+  // QuoteCodec) instead of building a String that has to be parsed again. The discount code only
+  // depends on the shop and the requestId
+  public void encodePriceWithDiscount(
+      String product, Shop shop, int shopId, ByteBuffer quotes, long requestId) {
+    double price = cachedPrice(shop, product);
+    QuoteCodec.encode(quotes, shopId, price, shop.discountCodeFor(requestId));
+  }
+
   public double getPrice(String product) {
-    return calculatePrice(product);
+    return cachedPrice(null, product);
+  }
+
+  // Non-blocking version of encodePriceWithDiscount(): it does not use the PriceCache
+  public CompletableFuture<Void> encodePriceWithDiscountAsync(
+      String product, Shop shop, int shopId, ByteBuffer quotes, long requestId) {
+    return coalescedPriceAsync(shop, product)
+        .thenAccept(
+            price -> QuoteCodec.encode(quotes, shopId, price, shop.discountCodeFor(requestId)));
+  }
+
+  // No thread is blocked while the price is being calculated (see Util.delayAsync())
+  public CompletableFuture<Double> calculatePriceAsync(String product) {
+    return calculatePriceAsync(null, product);
+  }
+
+  // Lookups that reused the price being calculated for another caller
+  public long getCoalescedCalls() {
+    return this.coalescedCalls.sum();
   }
 
   public void shouldThrowShopException() {
@@ -44,46 +103,260 @@ public class ShopService {
   }
 
   public Future<Double> getPriceAsync(String product) {
-    CompletableFuture<Double> futurePrice = new CompletableFuture<>();
-    // fork a different thread that will perform the actual price calculation
-    new Thread(
-            () -> {
-              try {
-                if (this.shouldCancel) {
-                  futurePrice.cancel(true);
-                  return;
-                }
-                double price = calculatePrice(product);
-                futurePrice.complete(price);
-              } catch (Exception ex) {
-                // It makes no sense to manually throw an exception here: completeExceptionally()
-                // does it (ExecutionException)
-                futurePrice.completeExceptionally(ex);
-              }
-            })
-        .start();
+    InterruptibleFuture<Double> futurePrice = new InterruptibleFuture<>();
+    // the actual price calculation runs in a different thread, taken from the asyncExecutor
+    futurePrice.runOn(
+        this.asyncExecutor,
+        () -> {
+          try {
+            if (this.shouldCancel) {
+              futurePrice.cancel(true);
+              return;
+            }
+            double price = calculatePrice(null, product);
+            futurePrice.complete(price);
+          } catch (Exception ex) {
+            // It makes no sense to manually throw an exception here: completeExceptionally()
+            // does it (ExecutionException)
+            futurePrice.completeExceptionally(ex);
+          }
+        });
     return futurePrice;
   }
 
   public Future<Double> getPriceWithSupplyAsync(String product) {
     CompletableFuture<Double> futurePrice =
-        CompletableFuture.supplyAsync(() -> calculatePrice(product));
+        CompletableFuture.supplyAsync(() -> calculatePrice(null, product));
     if (this.shouldCancel) {
       futurePrice.cancel(true);
     }
     return futurePrice;
   }
 
-  private double calculatePrice(String product) {
+  // The discount code is never cached: every quote draws a new one. shop is null for the prices
+  // that do not depend on the shop: they are not cached either, as their callers (e.g. one per
+  // shop in findPricesInUSD()) expect a price of their own
+  private double cachedPrice(Shop shop, String product) {
+    if (this.priceCache == null || shop == null) {
+      return coalescedPrice(shop, product);
+    }
+    return this.priceCache.get(shop.getName(), product, () -> coalescedPrice(shop, product));
+  }
+
+  // The lookups without a shop are not coalesced: their callers (e.g. one per shop in
+  // findPricesInUSD()) expect a price of their own.
+  // The first caller calculates the shared price in its own thread, the others wait for it. If
+  // the query of the first caller is cancelled, its thread is only interrupted once no other
+  // query is waiting for the price (see RequestScope.shield())
+  private double coalescedPrice(Shop shop, String product) {
+    if (shop == null) {
+      return calculatePrice(null, product);
+    }
+    SharedPrice candidate = new SharedPrice();
+    SharedPrice shared = joinPriceInFlight(new PriceKey(shop.getName(), product), candidate);
+    AtomicBoolean left = new AtomicBoolean();
+    Runnable leave =
+        () -> {
+          if (left.compareAndSet(false, true)) {
+            shared.leave();
+          }
+        };
+    try {
+      if (shared == candidate) {
+        calculateShared(shared, shop, product, leave);
+      }
+      return await(shared.price);
+    } finally {
+      leave.run();
+    }
+  }
+
+  private void calculateShared(SharedPrice shared, Shop shop, String product, Runnable leave) {
+    try (RequestScope.Shield shield = RequestScope.shield(leave)) {
+      shared.calculateIn(shield);
+      shared.price.complete(calculatePrice(shop, product));
+    } catch (Throwable e) {
+      // Even an Error: the callers waiting for this price would wait forever
+      shared.price.completeExceptionally(e);
+    } finally {
+      shared.calculateIn(null);
+    }
+  }
+
+  // Shares the calculations in flight with the blocking lookups. Cancelling the returned future
+  // only cancels this lookup
+  private CompletableFuture<Double> coalescedPriceAsync(Shop shop, String product) {
+    SharedPrice candidate = new SharedPrice();
+    SharedPrice shared = joinPriceInFlight(new PriceKey(shop.getName(), product), candidate);
+    if (shared == candidate) {
+      shared.start(
+          calculatePriceAsync(shop, product)
+              .whenComplete(
+                  (calculated, ex) -> {
+                    if (ex != null) {
+                      shared.price.completeExceptionally(ex);
+                    } else {
+                      shared.price.complete(calculated);
+                    }
+                  }));
+    }
+    CompletableFuture<Double> price = shared.price.copy();
+    price.whenComplete((calculated, ex) -> shared.leave());
+    return price;
+  }
+
+  // Joins the calculation of the price in flight for key, or returns candidate (already joined):
+  // then the caller has to calculate it
+  private SharedPrice joinPriceInFlight(PriceKey key, SharedPrice candidate) {
+    candidate.join();
+    while (true) {
+      SharedPrice inFlight = this.pricesInFlight.putIfAbsent(key, candidate);
+      if (inFlight == null) {
+        candidate.price.whenComplete((price, ex) -> this.pricesInFlight.remove(key, candidate));
+        return candidate;
+      }
+      if (inFlight.join()) {
+        this.coalescedCalls.increment();
+        return inFlight;
+      }
+      // Cancelled by the last of its callers, it is about to be removed
+      this.pricesInFlight.remove(key, inFlight);
+    }
+  }
+
+  // Interruptible, like the calculation it waits for (see Util.delay())
+  private static double await(CompletableFuture<Double> price) {
+    try {
+      return price.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      // Same exception as the calculation of the price
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new CompletionException(cause);
+    }
+  }
+
+  private double calculatePrice(Shop shop, String product) {
+    checkFailures();
+    LatencyProfile latencyProfile = latencyProfileOf(shop);
+    if (latencyProfile == null) {
+      delay(this.isRandomDelay);
+    } else {
+      delay(latencyProfile.nextDelayMillis());
+    }
+    return randomPrice(product);
+  }
+
+  private CompletableFuture<Double> calculatePriceAsync(Shop shop, String product) {
+    try {
+      checkFailures();
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    LatencyProfile latencyProfile = latencyProfileOf(shop);
+    CompletableFuture<Void> delayed =
+        latencyProfile == null
+            ? Util.delayAsync(this.isRandomDelay)
+            : Util.delayAsync(latencyProfile.nextDelayMillis());
+    return delayed.thenApply(done -> randomPrice(product));
+  }
+
+  // Shops loaded from a ShopRegistry bring their own latency
+  private static LatencyProfile latencyProfileOf(Shop shop) {
+    return shop == null ? null : shop.getLatencyProfile();
+  }
+
+  private void checkFailures() {
     if (this.shouldThrowShopException) {
       throw new ShopException("Something bad happened!");
     }
     if (this.shouldThrowRuntimeException) {
       throw new RuntimeException("Unexpected error!");
     }
-    delay(this.isRandomDelay);
-    System.out.println("Calculated price for " + product);
+  }
+
+  private static double randomPrice(String product) {
+    LOGGER.log("Calculated price for ", product);
     Random random = new Random();
     return random.nextDouble() * product.charAt(0) + product.charAt(1);
   }
+
+  // A price calculation in flight and how many lookups are waiting for it: it is cancelled (and
+  // its thread interrupted) only once the last of them is gone
+  private static class SharedPrice {
+
+    private final CompletableFuture<Double> price = new CompletableFuture<>();
+    // The non-blocking calculation, or the shield of the lookup calculating it in its thread
+    private Future<?> calculation;
+    private RequestScope.Shield calculator;
+    private int waiters;
+
+    private synchronized void start(Future<?> calculation) {
+      this.calculation = calculation;
+    }
+
+    private synchronized void calculateIn(RequestScope.Shield calculator) {
+      this.calculator = calculator;
+    }
+
+    // false if the calculation has already been cancelled
+    private synchronized boolean join() {
+      if (this.price.isCancelled()) {
+        return false;
+      }
+      this.waiters++;
+      return true;
+    }
+
+    // The calculating thread is interrupted out of the lock: it takes the lock of its RequestScope
+    private void leave() {
+      RequestScope.Shield interrupted;
+      synchronized (this) {
+        this.waiters--;
+        if (this.waiters != 0 || this.price.isDone()) {
+          return;
+        }
+        this.price.cancel(true);
+        if (this.calculation != null) {
+          this.calculation.cancel(true);
+        }
+        interrupted = this.calculator;
+      }
+      if (interrupted != null) {
+        interrupted.interrupt();
+      }
+    }
+  }
+
+  // cancel(true) on a CompletableFuture never interrupts the thread computing it: this one does
+  private static class InterruptibleFuture<T> extends CompletableFuture<T> {
+
+    private volatile Future<?> task;
+
+    private void runOn(ExecutorService executor, Runnable calculation) {
+      this.task = executor.submit(calculation);
+      // cancelled before the task was known: nobody has interrupted it yet
+      if (isCancelled()) {
+        this.task.cancel(true);
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      Future<?> runningTask = this.task;
+      if (cancelled && runningTask != null) {
+        runningTask.cancel(mayInterruptIfRunning);
+      }
+      return cancelled;
+    }
+  }
 }
@@ -0,0 +1,11 @@
+package es.islomar.bestpricefinder;
+
+// The shop was not called: its circuit breaker is open after too many failures or slow calls
+public class ShopUnavailableException extends ShopException {
+
+  private static final long serialVersionUID = 1L;
+
+  public ShopUnavailableException(String shopName) {
+    super(shopName + " is unavailable");
+  }
+}
@@ -0,0 +1,99 @@
+package es.islomar.bestpricefinder;
+
+import es.islomar.bestpricefinder.model.Shop;
+import es.islomar.bestpricefinder.model.ShopPrice;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The k lowest prices offered so far, in a max-heap of primitive arrays: the most expensive of
+ * them is at the root, so a new price only has to beat that one to get in.
+ *
+ * <p>Offers come from the threads of every shop, one per answer: a lock is cheap at that rate.
+ */
+class TopPrices {
+
+  private final double[] prices;
+  private final int[] shopIds;
+  private int size;
+
+  TopPrices(int k) {
+    this.prices = new double[k];
+    this.shopIds = new int[k];
+  }
+
+  synchronized void offer(int shopId, double price) {
+    if (this.size < this.prices.length) {
+      this.prices[this.size] = price;
+      this.shopIds[this.size] = shopId;
+      siftUp(this.size++);
+    } else if (price < this.prices[0]) {
+      this.prices[0] = price;
+      this.shopIds[0] = shopId;
+      siftDown(0);
+    }
+  }
+
+  // All k prices found, none of them above goodEnoughPrice
+  synchronized boolean areAllAtMost(double goodEnoughPrice) {
+    return this.size == this.prices.length && this.prices[0] <= goodEnoughPrice;
+  }
+
+  // Cheapest first
+  synchronized List<ShopPrice> toShopPrices(List<Shop> shops) {
+    ShopPrice[] sorted = new ShopPrice[this.size];
+    double[] prices = this.prices.clone();
+    int[] shopIds = this.shopIds.clone();
+    // Popping the root of a copy gives the prices from the most expensive one
+    for (int last = this.size - 1; last >= 0; last--) {
+      sorted[last] = new ShopPrice(shops.get(shopIds[0]).getName(), prices[0]);
+      prices[0] = prices[last];
+      shopIds[0] = shopIds[last];
+      siftDown(prices, shopIds, 0, last);
+    }
+    return Arrays.asList(sorted);
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (this.prices[parent] >= this.prices[index]) {
+        return;
+      }
+      swap(this.prices, this.shopIds, parent, index);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    siftDown(this.prices, this.shopIds, index, this.size);
+  }
+
+  private static void siftDown(double[] prices, int[] shopIds, int index, int size) {
+    while (true) {
+      int largest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < size && prices[left] > prices[largest]) {
+        largest = left;
+      }
+      if (right < size && prices[right] > prices[largest]) {
+        largest = right;
+      }
+      if (largest == index) {
+        return;
+      }
+      swap(prices, shopIds, index, largest);
+      index = largest;
+    }
+  }
+
+  private static void swap(double[] prices, int[] shopIds, int i, int j) {
+    double price = prices[i];
+    prices[i] = prices[j];
+    prices[j] = price;
+    int shopId = shopIds[i];
+    shopIds[i] = shopIds[j];
+    shopIds[j] = shopId;
+  }
+}
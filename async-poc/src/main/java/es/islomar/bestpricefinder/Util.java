@@ -1,15 +1,13 @@
 package es.islomar.bestpricefinder;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.Locale;
+import es.islomar.concurrent.Timers;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 public class Util {
 
-  private static final DecimalFormat formatter =
-      new DecimalFormat("#.##", new DecimalFormatSymbols(Locale.US));
-
   public static void delay(boolean isRandomDelay) {
     if (isRandomDelay) {
       randomDelay();
@@ -18,26 +16,35 @@ public class Util {
     }
   }
 
-  private static void fixedDelay() {
-    try {
-      Thread.sleep(1000L);
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
-    }
+  /**
+   * Non-blocking version of delay(): no thread waits, the future is completed by a timer once the
+   * delay has elapsed. Stages chained with the non-async methods (thenApply...) run in the timer
+   * thread, so they must be short.
+   */
+  public static CompletableFuture<Void> delayAsync(boolean isRandomDelay) {
+    return delayAsync(isRandomDelay ? 500 + ThreadLocalRandom.current().nextInt(200) : 1000L);
   }
 
-  private static void randomDelay() {
-    int delay = 500 + new Random().nextInt(200);
+  public static CompletableFuture<Void> delayAsync(long millis) {
+    CompletableFuture<Void> delayed = new CompletableFuture<>();
+    Timers.shared().schedule(() -> delayed.complete(null), millis, TimeUnit.MILLISECONDS);
+    return delayed;
+  }
+
+  public static void delay(long millis) {
     try {
-      Thread.sleep(delay);
+      Thread.sleep(millis);
     } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new RuntimeException(e);
     }
   }
 
-  public static double format(double number) {
-    synchronized (formatter) {
-      return Double.parseDouble(formatter.format(number));
-    }
+  private static void fixedDelay() {
+    delay(1000L);
+  }
+
+  private static void randomDelay() {
+    delay(500 + new Random().nextInt(200));
   }
 }
@@ -0,0 +1,51 @@
+package es.islomar.bestpricefinder;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads only exist from Java 21 on, while this project still targets Java 11: the
+ * factory method is looked up at runtime and, when missing, a new daemon platform thread is
+ * started per task instead (same semantics, higher cost per thread).
+ */
+public class VirtualThreads {
+
+  private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findFactory();
+
+  private VirtualThreads() {}
+
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  public static ExecutorService newThreadPerTaskExecutor() {
+    if (!isSupported()) {
+      return Executors.newCachedThreadPool(
+          r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+          });
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invokeExact();
+    } catch (Throwable t) {
+      throw new IllegalStateException("Unable to create a virtual thread executor", t);
+    }
+  }
+
+  private static MethodHandle findFactory() {
+    try {
+      return MethodHandles.publicLookup()
+          .findStatic(
+              Executors.class,
+              "newVirtualThreadPerTaskExecutor",
+              MethodType.methodType(ExecutorService.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    }
+  }
+}
@@ -7,6 +7,9 @@ public enum DiscountCode {
   PLATINUM(15),
   DIAMOND(20);
 
+  // values() clones the array on every call
+  private static final DiscountCode[] VALUES = values();
+
   private final int percentage;
 
   DiscountCode(int percentage) {
@@ -16,4 +19,12 @@ public enum DiscountCode {
   public int getPercentage() {
     return this.percentage;
   }
+
+  public static DiscountCode fromOrdinal(int ordinal) {
+    return VALUES[ordinal];
+  }
+
+  public static int count() {
+    return VALUES.length;
+  }
 }
@@ -0,0 +1,27 @@
+package es.islomar.bestpricefinder.model;
+
+/**
+ * Result of DiscountService.discount(): the price of a shop before and after its discount code.
+ * The "<shop> price is <price>" text is only built by toString(), at the edge, when a caller asks
+ * for it.
+ */
+public class DiscountedPrice extends ShopPrice {
+
+  private final double originalPrice;
+  private final DiscountCode discountCode;
+
+  public DiscountedPrice(
+      String shopName, double originalPrice, DiscountCode discountCode, double price) {
+    super(shopName, price);
+    this.originalPrice = originalPrice;
+    this.discountCode = discountCode;
+  }
+
+  public double getOriginalPrice() {
+    return this.originalPrice;
+  }
+
+  public DiscountCode getDiscountCode() {
+    return this.discountCode;
+  }
+}
@@ -0,0 +1,31 @@
+package es.islomar.bestpricefinder.model;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// How long a shop takes to calculate a price: a uniformly distributed delay in [min, max] msecs
+public class LatencyProfile {
+
+  private final int minMillis;
+  private final int maxMillis;
+
+  public LatencyProfile(int minMillis, int maxMillis) {
+    if (minMillis < 0 || maxMillis < minMillis) {
+      throw new IllegalArgumentException(
+          "Invalid latency range: [" + minMillis + ", " + maxMillis + "]");
+    }
+    this.minMillis = minMillis;
+    this.maxMillis = maxMillis;
+  }
+
+  public int getMinMillis() {
+    return this.minMillis;
+  }
+
+  public int getMaxMillis() {
+    return this.maxMillis;
+  }
+
+  public long nextDelayMillis() {
+    return ThreadLocalRandom.current().nextLong(this.minMillis, this.maxMillis + 1L);
+  }
+}
@@ -12,6 +12,7 @@ public class Quote {
     this.discountCode = discountCode;
   }
 
+  // Text format kept for compatibility: QuoteCodec avoids the split and the number parsing
   public static Quote parse(String shopPriceDiscount) {
     String[] split = shopPriceDiscount.split(":");
     String shopName = split[0];
@@ -0,0 +1,112 @@
+package es.islomar.bestpricefinder.model;
+
+import es.islomar.bestpricefinder.CurrencyConverter;
+import es.islomar.bestpricefinder.model.ShopResult.Status;
+import java.util.List;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * The answers of many shops to a query as parallel primitive arrays (shop ids, prices, discount
+ * code ordinals and statuses): a few arrays instead of a String, a boxed Double or a ShopResult
+ * per shop.
+ *
+ * <p>Every shop of the query writes its own index, BestPriceFinder sets the statuses once the
+ * query is over. The price and the discount code of an index are only meaningful if its status is
+ * SUCCEEDED: the accessors give NaN and null otherwise.
+ */
+public class QuoteBatch {
+
+  private static final Status[] STATUSES = Status.values();
+  // Status ordinal + 1, so that 0 means no answer yet
+  private static final byte PENDING = 0;
+
+  private final List<Shop> shops;
+  private final int[] shopIds;
+  private final double[] prices;
+  private final byte[] discountCodes;
+  private final byte[] statuses;
+
+  // One index per shop, the index being the shop id
+  public QuoteBatch(List<Shop> shops) {
+    this.shops = shops;
+    this.shopIds = IntStream.range(0, shops.size()).toArray();
+    this.prices = new double[shops.size()];
+    this.discountCodes = new byte[shops.size()];
+    this.statuses = new byte[shops.size()];
+  }
+
+  public void setPrice(int index, double price, DiscountCode discountCode) {
+    this.prices[index] = price;
+    this.discountCodes[index] = (byte) discountCode.ordinal();
+  }
+
+  public void setStatus(int index, Status status) {
+    this.statuses[index] = (byte) (status.ordinal() + 1);
+  }
+
+  // Multiplies every price, e.g. by an exchange rate
+  public void convert(double rate) {
+    CurrencyConverter.convert(this.prices, rate, this.prices);
+  }
+
+  public int size() {
+    return this.shopIds.length;
+  }
+
+  public int shopId(int index) {
+    return this.shopIds[index];
+  }
+
+  public String shopName(int index) {
+    return this.shops.get(this.shopIds[index]).getName();
+  }
+
+  // null while the shop has not answered
+  public Status status(int index) {
+    return this.statuses[index] == PENDING ? null : STATUSES[this.statuses[index] - 1];
+  }
+
+  public boolean isSucceeded(int index) {
+    return this.statuses[index] == Status.SUCCEEDED.ordinal() + 1;
+  }
+
+  public double price(int index) {
+    return isSucceeded(index) ? this.prices[index] : Double.NaN;
+  }
+
+  public DiscountCode discountCode(int index) {
+    return isSucceeded(index) ? DiscountCode.fromOrdinal(this.discountCodes[index]) : null;
+  }
+
+  // Prices of the shops that succeeded, e.g. prices().min(), prices().average()
+  public DoubleStream prices() {
+    return succeededIndexes().mapToDouble(index -> this.prices[index]);
+  }
+
+  public IntStream succeededIndexes() {
+    return IntStream.range(0, size()).filter(this::isSucceeded);
+  }
+
+  public int count(Status status) {
+    int count = 0;
+    byte flag = (byte) (status.ordinal() + 1);
+    for (byte shopStatus : this.statuses) {
+      if (shopStatus == flag) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // -1 if no shop succeeded
+  public int indexOfCheapest() {
+    int cheapest = -1;
+    for (int index = 0; index < size(); index++) {
+      if (isSucceeded(index) && (cheapest < 0 || this.prices[index] < this.prices[cheapest])) {
+        cheapest = index;
+      }
+    }
+    return cheapest;
+  }
+}
@@ -0,0 +1,53 @@
+package es.islomar.bestpricefinder.model;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Binary alternative to the "shopName:price:CODE" text of {@link Quote#parse(String)}: one
+ * fixed-size record per shop (shop id, raw double price, discount code ordinal) in a buffer
+ * indexed by shop id.
+ *
+ * <p>Reads and writes use absolute positions only, so encoding and decoding allocate nothing and
+ * different shops can write their own record of the same buffer concurrently.
+ */
+public class QuoteCodec {
+
+  private static final int SHOP_ID_OFFSET = 0;
+  private static final int PRICE_OFFSET = SHOP_ID_OFFSET + Integer.BYTES;
+  private static final int DISCOUNT_CODE_OFFSET = PRICE_OFFSET + Double.BYTES;
+  public static final int RECORD_SIZE = DISCOUNT_CODE_OFFSET + Byte.BYTES;
+
+  private QuoteCodec() {}
+
+  public static ByteBuffer allocate(int shopCount) {
+    return ByteBuffer.allocate(shopCount * RECORD_SIZE);
+  }
+
+  public static void encode(ByteBuffer quotes, int shopId, double price, DiscountCode code) {
+    int offset = shopId * RECORD_SIZE;
+    quotes.putInt(offset + SHOP_ID_OFFSET, shopId);
+    quotes.putDouble(offset + PRICE_OFFSET, price);
+    quotes.put(offset + DISCOUNT_CODE_OFFSET, (byte) code.ordinal());
+  }
+
+  public static int shopId(ByteBuffer quotes, int shopId) {
+    return quotes.getInt(shopId * RECORD_SIZE + SHOP_ID_OFFSET);
+  }
+
+  public static double price(ByteBuffer quotes, int shopId) {
+    return quotes.getDouble(shopId * RECORD_SIZE + PRICE_OFFSET);
+  }
+
+  public static DiscountCode discountCode(ByteBuffer quotes, int shopId) {
+    return DiscountCode.fromOrdinal(quotes.get(shopId * RECORD_SIZE + DISCOUNT_CODE_OFFSET));
+  }
+
+  // The shop name is not part of the record: it comes from the shops the ids refer to
+  public static Quote decode(ByteBuffer quotes, int shopId, List<Shop> shops) {
+    return new Quote(
+        shops.get(shopId(quotes, shopId)).getName(),
+        price(quotes, shopId),
+        discountCode(quotes, shopId));
+  }
+}
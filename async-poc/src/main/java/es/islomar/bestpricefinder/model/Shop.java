@@ -1,22 +1,64 @@
 package es.islomar.bestpricefinder.model;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Shop {
 
   private final String name;
-  private final Random random;
+  private final long seed;
+  // Codes from NONE up to this one are given
+  private final DiscountCode maxDiscountCode;
+  // null: the ShopService decides the latency
+  private final LatencyProfile latencyProfile;
 
   public Shop(String name) {
+    this(name, DiscountCode.fromOrdinal(DiscountCode.count() - 1), null);
+  }
+
+  public Shop(String name, DiscountCode maxDiscountCode, LatencyProfile latencyProfile) {
     this.name = name;
-    this.random = new Random(name.charAt(0) * name.charAt(1) * name.charAt(2));
+    // The whole name: shops whose names only differ at the end (Shop1, Shop2...) draw other codes
+    this.seed = mix(name.hashCode());
+    this.maxDiscountCode = maxDiscountCode;
+    this.latencyProfile = latencyProfile;
   }
 
   public String getName() {
     return this.name;
   }
 
+  public DiscountCode getMaxDiscountCode() {
+    return this.maxDiscountCode;
+  }
+
+  public LatencyProfile getLatencyProfile() {
+    return this.latencyProfile;
+  }
+
   public String getDiscountCode() {
-    return DiscountCode.values()[this.random.nextInt(DiscountCode.values().length)].name();
+    return nextDiscountCode().name();
+  }
+
+  // A random code for a request without id: nothing shared with other threads
+  public DiscountCode nextDiscountCode() {
+    return discountCodeFor(ThreadLocalRandom.current().nextLong());
+  }
+
+  /**
+   * Always the same code for the same shop and request, and no state at all: a shared Random per
+   * shop made every concurrent request to the shop compete for its seed.
+   */
+  public DiscountCode discountCodeFor(long requestId) {
+    long hash = mix(this.seed + requestId * 0x9E3779B97F4A7C15L);
+    // Maps the 32 high bits to [0, maxDiscountCode] without modulo
+    int count = this.maxDiscountCode.ordinal() + 1;
+    return DiscountCode.fromOrdinal((int) (((hash >>> 32) * count) >>> 32));
+  }
+
+  // Finalizer of SplitMix64: consecutive request ids give unrelated codes
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
   }
 }
@@ -0,0 +1,26 @@
+package es.islomar.bestpricefinder.model;
+
+// Final (discounted) price of a shop, as a number: no need to parse "<shop> price is <price>"
+public class ShopPrice {
+
+  private final String shopName;
+  private final double price;
+
+  public ShopPrice(String shopName, double price) {
+    this.shopName = shopName;
+    this.price = price;
+  }
+
+  public String getShopName() {
+    return this.shopName;
+  }
+
+  public double getPrice() {
+    return this.price;
+  }
+
+  @Override
+  public String toString() {
+    return this.shopName + " price is " + this.price;
+  }
+}
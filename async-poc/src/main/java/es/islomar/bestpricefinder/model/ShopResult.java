@@ -0,0 +1,82 @@
+package es.islomar.bestpricefinder.model;
+
+// What a single shop answered to a query: its value, its error, or nothing if it was too slow or
+// it was not called at all
+public class ShopResult<T> {
+
+  public enum Status {
+    SUCCEEDED,
+    FAILED,
+    TIMED_OUT,
+    // Not called: there was no capacity left for it (see Bulkhead)
+    REJECTED,
+    // Not called: it has been failing lately (see CircuitBreaker)
+    UNAVAILABLE
+  }
+
+  private final String shopName;
+  private final Status status;
+  private final T value;
+  private final Throwable error;
+
+  private ShopResult(String shopName, Status status, T value, Throwable error) {
+    this.shopName = shopName;
+    this.status = status;
+    this.value = value;
+    this.error = error;
+  }
+
+  public static <T> ShopResult<T> succeeded(String shopName, T value) {
+    return new ShopResult<>(shopName, Status.SUCCEEDED, value, null);
+  }
+
+  public static <T> ShopResult<T> failed(String shopName, Throwable error) {
+    return new ShopResult<>(shopName, Status.FAILED, null, error);
+  }
+
+  public static <T> ShopResult<T> timedOut(String shopName) {
+    return new ShopResult<>(shopName, Status.TIMED_OUT, null, null);
+  }
+
+  public static <T> ShopResult<T> rejected(String shopName, Throwable error) {
+    return new ShopResult<>(shopName, Status.REJECTED, null, error);
+  }
+
+  public static <T> ShopResult<T> unavailable(String shopName) {
+    return new ShopResult<>(shopName, Status.UNAVAILABLE, null, null);
+  }
+
+  public String getShopName() {
+    return this.shopName;
+  }
+
+  public Status getStatus() {
+    return this.status;
+  }
+
+  public boolean isSucceeded() {
+    return this.status == Status.SUCCEEDED;
+  }
+
+  // null unless the shop succeeded
+  public T getValue() {
+    return this.value;
+  }
+
+  // null unless the shop failed or was rejected
+  public Throwable getError() {
+    return this.error;
+  }
+
+  @Override
+  public String toString() {
+    switch (this.status) {
+      case SUCCEEDED:
+        return this.shopName + ": " + this.value;
+      case FAILED:
+        return this.shopName + ": failed (" + this.error + ")";
+      default:
+        return this.shopName + ": " + this.status;
+    }
+  }
+}
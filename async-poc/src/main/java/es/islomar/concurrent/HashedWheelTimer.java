@@ -0,0 +1,257 @@
+package es.islomar.concurrent;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks after a delay with a single thread, however many of them are pending (e.g. a million
+ * futures to complete or cancel), instead of a sleeping thread per task.
+ *
+ * <p>Timeouts are hashed into a circular array of buckets, one per tick. Every tick the worker
+ * thread only looks at the bucket under the hand of the clock: the timeouts due are run, the ones
+ * due in a later turn of the wheel wait there. Precision is one tick; tasks run in the worker
+ * thread, so they must be short (e.g. completing a CompletableFuture).
+ *
+ * <p>Only the worker thread touches the buckets: new and cancelled timeouts reach it through
+ * lock-free queues.
+ *
+ * <p>A task that throws does not stop the timer: the exception goes to the uncaught exception
+ * handler of the worker thread, and the next timeouts run as usual.
+ */
+public class HashedWheelTimer {
+
+  // Limits the time spent moving new timeouts into the wheel in a single tick
+  private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final long startTime;
+  private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+  private final AtomicLong pendingTimeouts = new AtomicLong();
+  private final Thread worker;
+  private volatile boolean stopped;
+  private long tick;
+
+  public HashedWheelTimer(Duration tickDuration, int ticksPerWheel) {
+    this(tickDuration, ticksPerWheel, null);
+  }
+
+  // failedTasks gets the exceptions thrown by the tasks; when null, the default handler of the
+  // thread does
+  public HashedWheelTimer(
+      Duration tickDuration, int ticksPerWheel, Thread.UncaughtExceptionHandler failedTasks) {
+    if (tickDuration.toMillis() < 1 || ticksPerWheel < 1) {
+      throw new IllegalArgumentException("A tick lasts 1 msec at least, and a wheel has 1 tick");
+    }
+    this.tickNanos = tickDuration.toNanos();
+    // Power of two, so the bucket of a tick is tick & mask
+    int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+    this.wheel = new Bucket[Math.max(size, 1)];
+    for (int i = 0; i < this.wheel.length; i++) {
+      this.wheel[i] = new Bucket();
+    }
+    this.mask = this.wheel.length - 1;
+    this.startTime = System.nanoTime();
+    this.worker = new Thread(this::run, "hashed-wheel-timer");
+    this.worker.setDaemon(true);
+    this.worker.setUncaughtExceptionHandler(failedTasks);
+    this.worker.start();
+  }
+
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (this.stopped) {
+      throw new IllegalStateException("The timer has been stopped");
+    }
+    long deadline = System.nanoTime() + unit.toNanos(delay) - this.startTime;
+    Timeout timeout = new Timeout(this, task, deadline);
+    this.pendingTimeouts.incrementAndGet();
+    this.newTimeouts.add(timeout);
+    return timeout;
+  }
+
+  public long pendingTimeouts() {
+    return this.pendingTimeouts.get();
+  }
+
+  // Pending timeouts are dropped
+  public void stop() {
+    this.stopped = true;
+    this.worker.interrupt();
+  }
+
+  private void run() {
+    while (!this.stopped) {
+      long deadline = waitForNextTick();
+      if (deadline < 0) {
+        return;
+      }
+      removeCancelledTimeouts();
+      transferNewTimeouts();
+      this.wheel[(int) (this.tick & this.mask)].expireTimeouts(deadline);
+      this.tick++;
+    }
+  }
+
+  // Returns the time of the tick, relative to startTime, or -1 if the timer was stopped
+  private long waitForNextTick() {
+    long deadline = this.tickNanos * (this.tick + 1);
+    while (true) {
+      long now = System.nanoTime() - this.startTime;
+      long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - now + 999_999);
+      if (sleepMillis <= 0) {
+        return now;
+      }
+      try {
+        Thread.sleep(sleepMillis);
+      } catch (InterruptedException e) {
+        if (this.stopped) {
+          return -1;
+        }
+      }
+    }
+  }
+
+  private void transferNewTimeouts() {
+    for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+      Timeout timeout = this.newTimeouts.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.state != Timeout.PENDING) {
+        continue;
+      }
+      long dueTick = timeout.deadline / this.tickNanos;
+      timeout.remainingRounds = (dueTick - this.tick) / this.wheel.length;
+      // Already late timeouts go to the current bucket
+      int bucket = (int) (Math.max(dueTick, this.tick) & this.mask);
+      this.wheel[bucket].add(timeout);
+    }
+  }
+
+  private void removeCancelledTimeouts() {
+    Timeout timeout;
+    while ((timeout = this.cancelledTimeouts.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  public static class Timeout {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+    private final long deadline;
+    private volatile int state = PENDING;
+    // Only used by the worker thread
+    private long remainingRounds;
+    private Bucket bucket;
+    private Timeout next;
+    private Timeout prev;
+
+    private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+      this.timer = timer;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    // false if the task has already run (or was already cancelled)
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+        return false;
+      }
+      this.timer.pendingTimeouts.decrementAndGet();
+      this.timer.cancelledTimeouts.add(this);
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return this.state == CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return this.state == EXPIRED;
+    }
+
+    private void expire() {
+      if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+        return;
+      }
+      this.timer.pendingTimeouts.decrementAndGet();
+      try {
+        this.task.run();
+      } catch (Throwable e) {
+        // A failing task must not kill the timer, not even with an Error (e.g. an AssertionError
+        // thrown by a callback of the future it completes)
+        Thread worker = Thread.currentThread();
+        worker.getUncaughtExceptionHandler().uncaughtException(worker, e);
+      }
+    }
+  }
+
+  // Doubly-linked list, so cancelled timeouts are unlinked right away instead of staying until
+  // their tick
+  private static class Bucket {
+
+    private Timeout head;
+    private Timeout tail;
+
+    private void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (this.head == null) {
+        this.head = timeout;
+      } else {
+        this.tail.next = timeout;
+        timeout.prev = this.tail;
+      }
+      this.tail = timeout;
+    }
+
+    private void expireTimeouts(long deadline) {
+      Timeout timeout = this.head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+          remove(timeout);
+          timeout.expire();
+        } else if (timeout.isCancelled()) {
+          remove(timeout);
+        } else if (timeout.remainingRounds > 0) {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    private void remove(Timeout timeout) {
+      if (timeout.bucket != this) {
+        return;
+      }
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        this.head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        this.tail = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package es.islomar.concurrent;
+
+import java.time.Duration;
+
+/**
+ * The timer shared by the whole process, so that every class scheduling delays or timeouts adds
+ * its timeouts to the same wheel instead of starting a worker thread of its own.
+ *
+ * <p>It ticks every 10 msec and is never stopped: its worker is a daemon thread.
+ */
+public final class Timers {
+
+  private Timers() {}
+
+  public static HashedWheelTimer shared() {
+    return SharedTimer.TIMER;
+  }
+
+  // Started the first time it is used
+  private static class SharedTimer {
+
+    private static final HashedWheelTimer TIMER =
+        new HashedWheelTimer(Duration.ofMillis(10), 512);
+  }
+}
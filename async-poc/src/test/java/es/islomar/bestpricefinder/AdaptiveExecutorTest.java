@@ -0,0 +1,67 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveExecutorTest {
+
+  private AdaptiveExecutor executor;
+
+  @AfterEach
+  public void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  // 100 tasks per second blocked 100 msecs each: 10 tasks in flight
+  public void grow_to_the_threads_given_by_littles_law() {
+    this.executor = new AdaptiveExecutor(1, 100, Duration.ofMillis(200));
+
+    submitTasks(100, 10, Duration.ofSeconds(2));
+
+    assertThat(this.executor.getServiceTimeMillis(), is(greaterThanOrEqualTo(100.0)));
+    assertThat(this.executor.getBlockingTimeMillis(), is(greaterThan(90.0)));
+    assertThat(
+        this.executor.getLittlesLawThreads(),
+        is(both(greaterThanOrEqualTo(5)).and(lessThanOrEqualTo(20))));
+    assertThat(this.executor.getTargetThreads(), is(this.executor.getLittlesLawThreads()));
+    assertThat(this.executor.getResizes(), is(greaterThan(0L)));
+  }
+
+  @Test
+  public void never_go_beyond_its_bounds() {
+    this.executor = new AdaptiveExecutor(2, 4, Duration.ofMillis(200));
+
+    submitTasks(100, 10, Duration.ofSeconds(1));
+
+    assertThat(this.executor.getLittlesLawThreads(), is(greaterThan(4)));
+    assertThat(this.executor.getTargetThreads(), is(4));
+    assertThat(this.executor.getMaximumPoolSize(), is(4));
+  }
+
+  @Test
+  public void keep_the_minimum_size_until_a_task_has_finished() {
+    this.executor = new AdaptiveExecutor(3, 10, Duration.ofMillis(1));
+
+    submitTasks(1_000, 1, Duration.ofMillis(100));
+
+    assertThat(this.executor.getTargetThreads(), is(3));
+    assertThat(this.executor.getResizes(), is(0L));
+  }
+
+  private void submitTasks(long taskMillis, long periodMillis, Duration duration) {
+    long end = System.nanoTime() + duration.toNanos();
+    while (System.nanoTime() < end) {
+      this.executor.execute(() -> Util.delay(taskMillis));
+      Util.delay(periodMillis);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class AsyncLoggerTest {
+
+  private static final String LINE = System.lineSeparator();
+
+  @Test
+  public void write_the_records_in_the_order_they_were_logged() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    AsyncLogger logger = new AsyncLogger(new PrintStream(output), 128);
+
+    for (int i = 0; i < 100; i++) {
+      logger.log("Calculated price for ", i);
+    }
+    logger.flush();
+
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      expected.append("Calculated price for ").append(i).append(LINE);
+    }
+    assertThat(output.toString(), is(expected.toString()));
+    assertThat(logger.getDroppedRecords(), is(0L));
+    logger.stop();
+  }
+
+  @Test
+  public void lose_no_record_logged_from_several_threads() throws InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    AsyncLogger logger = new AsyncLogger(new PrintStream(output), 1024);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    for (int thread = 0; thread < 4; thread++) {
+      executor.execute(
+          () -> {
+            for (int i = 0; i < 250; i++) {
+              logger.log("record");
+            }
+          });
+    }
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+    logger.flush();
+
+    long written = output.toString().lines().count();
+    assertThat(written + logger.getDroppedRecords(), is(1_000L));
+    logger.stop();
+  }
+
+  @Test
+  // The output is stuck, as a slow console would be: logging must not wait for it
+  public void drop_and_count_the_records_that_do_not_fit_instead_of_blocking() {
+    CountDownLatch stuck = new CountDownLatch(1);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    OutputStream slowOutput =
+        new OutputStream() {
+          @Override
+          public void write(int b) {
+            awaitQuietly(stuck);
+            output.write(b);
+          }
+        };
+    AsyncLogger logger = new AsyncLogger(new PrintStream(slowOutput), 8);
+    long start = System.nanoTime();
+
+    for (int i = 0; i < 1_000; i++) {
+      logger.log("Calculated price for ", i);
+    }
+
+    assertThat((System.nanoTime() - start) / 1_000_000, lessThan(1_000L));
+    assertThat(logger.getDroppedRecords(), greaterThan(900L));
+    stuck.countDown();
+    logger.flush();
+    assertThat(output.toString(), containsString("AsyncLogger dropped"));
+    logger.stop();
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
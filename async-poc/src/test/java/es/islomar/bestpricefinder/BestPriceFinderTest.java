@@ -1,5 +1,49 @@
 package es.islomar.bestpricefinder;
 
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.DiscountedPrice;
+import es.islomar.bestpricefinder.model.LatencyProfile;
+import es.islomar.bestpricefinder.model.QuoteBatch;
+import es.islomar.bestpricefinder.model.QuoteCodec;
+import es.islomar.bestpricefinder.model.Shop;
+import es.islomar.bestpricefinder.model.ShopPrice;
+import es.islomar.bestpricefinder.model.ShopResult;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -116,4 +160,729 @@ public class BestPriceFinderTest {
     long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
     System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
   }
+
+  @Test
+  // With a virtual thread per shop call, thousands of shops take the time of one price plus one
+  // discount calculation, instead of waiting for free threads in a fixed-size pool
+  public void find_prices_with_discounts_for_thousands_of_shops_with_a_thread_per_shop() {
+    List<Shop> shops =
+        IntStream.range(0, 2_000).mapToObj(i -> new Shop("Shop" + i)).collect(toList());
+    this.bestPriceFinder =
+        new BestPriceFinder(shops, true, ExecutionMode.VIRTUAL_THREAD_PER_SHOP);
+    long start = System.nanoTime();
+
+    List<String> prices = this.bestPriceFinder.asyncFindPricesWithDiscounts(ANY_PRODUCT);
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
+    assertThat(prices, hasSize(2_000));
+    assertThat(totalTimeElapsed, lessThan(10_000L));
+  }
+
+  @Test
+  // The second query finds every price in the cache and does not wait for any shop
+  public void serve_repeated_queries_from_the_price_cache() {
+    PriceCache priceCache = new PriceCache(Duration.ofMinutes(1), 100);
+    this.bestPriceFinder = new BestPriceFinder(true, priceCache);
+    this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT);
+    long start = System.nanoTime();
+
+    this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT);
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
+    assertThat(totalTimeElapsed, lessThan(500L));
+    assertThat(priceCache.getHits(), greaterThanOrEqualTo(16L));
+  }
+
+  @Test
+  // The prices that do not depend on the shop are not cached: every shop gets its own one
+  public void give_every_shop_its_own_price_in_usd_with_a_price_cache() {
+    PriceCache priceCache = new PriceCache(Duration.ofMinutes(1), 100);
+    this.bestPriceFinder = new BestPriceFinder(false, priceCache);
+
+    QuoteBatch batch = this.bestPriceFinder.findPricesInUSD(ANY_PRODUCT);
+
+    assertThat(batch.prices().distinct().count(), is((long) batch.size()));
+    assertThat(priceCache.size(), is(0));
+    assertThat(priceCache.getHits(), is(0L));
+  }
+
+  @Test
+  // The response takes the timeout at most, whatever the slowest shop does
+  public void return_the_prices_found_before_the_timeout_and_report_the_other_shops() {
+    List<Shop> shops =
+        Arrays.asList(new Shop("BestPrices"), new Shop("SlowShop"), new Shop("BrokenShop"));
+    this.bestPriceFinder =
+        new BestPriceFinder(shops, new FlakyShopService(), Executors.newCachedThreadPool(), true);
+    long start = System.nanoTime();
+
+    List<ShopResult<String>> results =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(
+            ANY_PRODUCT, Duration.ofMillis(1500));
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs: %s", totalTimeElapsed, results));
+    assertThat(results.get(0).getStatus(), is(ShopResult.Status.SUCCEEDED));
+    assertThat(results.get(1).getStatus(), is(ShopResult.Status.TIMED_OUT));
+    assertThat(results.get(2).getStatus(), is(ShopResult.Status.FAILED));
+    assertThat(results.get(2).getError(), instanceOf(ShopException.class));
+    assertThat(totalTimeElapsed, lessThan(2_500L));
+  }
+
+  @Test
+  // The subscriber receives every discounted price as soon as it is ready, as a number
+  public void publish_the_prices_as_soon_as_each_is_ready() throws InterruptedException {
+    CountDownLatch completed = new CountDownLatch(1);
+    List<ShopPrice> prices = new CopyOnWriteArrayList<>();
+    this.bestPriceFinder = new BestPriceFinder(true);
+    long start = System.nanoTime();
+
+    this.bestPriceFinder
+        .publishPricesWithDiscounts(ANY_PRODUCT)
+        .subscribe(
+            new Flow.Subscriber<ShopPrice>() {
+              private Flow.Subscription subscription;
+
+              @Override
+              public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+              }
+
+              @Override
+              public void onNext(ShopPrice price) {
+                System.out.println(
+                    price + " (done in " + ((System.nanoTime() - start) / 1_000_000) + " msecs)");
+                prices.add(price);
+                this.subscription.request(1);
+              }
+
+              @Override
+              public void onError(Throwable throwable) {}
+
+              @Override
+              public void onComplete() {
+                completed.countDown();
+              }
+            });
+
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertThat(prices, hasSize(16));
+  }
+
+  @Test
+  // 3 products x 4 shops with 12 workers: the whole basket takes the time of a single product
+  public void find_prices_of_a_basket_of_products_in_a_single_job() {
+    List<Shop> shops =
+        Arrays.asList(
+            new Shop("BestPrices"),
+            new Shop("LetsSaveBig"),
+            new Shop("MyFavoriteShop"),
+            new Shop("BuyItAll"));
+    this.bestPriceFinder =
+        new BestPriceFinder(shops, new ShopService(true), Executors.newCachedThreadPool(), true);
+    long start = System.nanoTime();
+
+    Map<String, List<ShopPrice>> pricesByProduct =
+        this.bestPriceFinder.findPricesWithDiscounts(
+            Arrays.asList("myPhone", "myTablet", "myLaptop"), 12);
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
+    assertThat(pricesByProduct.keySet(), contains("myPhone", "myTablet", "myLaptop"));
+    assertThat(pricesByProduct.get("myTablet"), hasSize(4));
+    assertThat(pricesByProduct.get("myTablet").get(3).getShopName(), is("BuyItAll"));
+    assertThat(totalTimeElapsed, lessThan(2_500L));
+  }
+
+  @Test
+  public void reject_baskets_that_cannot_be_priced() {
+    List<String> products = Arrays.asList("myPhone", "myTablet", "myPhone");
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> this.bestPriceFinder.findPricesWithDiscounts(products, 4));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> this.bestPriceFinder.findPricesWithDiscounts(Arrays.asList("myPhone"), 0));
+  }
+
+  @Test
+  // Tens of thousands of shops in flight with a fixed pool of 2 threads, none of them blocked:
+  // the pool decodes and renders every price, the timer thread only completes the futures
+  public void find_prices_of_tens_of_thousands_of_shops_without_blocking_threads() {
+    List<Shop> shops =
+        IntStream.range(0, 20_000).mapToObj(i -> new Shop("Shop" + i)).collect(toList());
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    AtomicInteger pooledTasks = new AtomicInteger();
+    Executor executor =
+        task -> {
+          pooledTasks.incrementAndGet();
+          pool.execute(task);
+        };
+    this.bestPriceFinder = new BestPriceFinder(shops, new ShopService(true), executor, true);
+    long start = System.nanoTime();
+
+    List<String> prices = this.bestPriceFinder.nonBlockingFindPricesWithDiscounts(ANY_PRODUCT);
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
+    assertThat(prices, hasSize(20_000));
+    assertThat(totalTimeElapsed, lessThan(10_000L));
+    assertThat(pooledTasks.get(), is(2 * 20_000));
+    pool.shutdown();
+  }
+
+  @Test
+  // Every shop of the registry answers with its own latency (10-50 msecs here)
+  public void find_prices_with_discounts_for_the_shops_of_a_registry() throws IOException {
+    Path file = Files.createTempFile("shops", ".bin");
+    ShopRegistry.write(
+        file,
+        IntStream.range(0, 50_000)
+            .mapToObj(i -> new Shop("Shop" + i, DiscountCode.GOLD, new LatencyProfile(10, 50)))
+            .collect(toList()));
+    this.bestPriceFinder =
+        new BestPriceFinder(ShopRegistry.load(file), false, ExecutionMode.PLATFORM_THREAD_POOL);
+    long start = System.nanoTime();
+
+    List<String> prices = this.bestPriceFinder.nonBlockingFindPricesWithDiscounts(ANY_PRODUCT);
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
+    assertThat(prices, hasSize(50_000));
+    assertThat(totalTimeElapsed, lessThan(10_000L));
+    Files.delete(file);
+  }
+
+  @Test
+  // Every stage of the query can be followed in jconsole (or any JMX client)
+  public void publish_the_latency_of_every_stage_over_jmx() throws JMException {
+    this.bestPriceFinder.getMetrics().registerMBeans("test");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    try {
+      this.bestPriceFinder.asyncFindPricesWithDiscounts(ANY_PRODUCT);
+
+      assertThat(server.getAttribute(stage("PRICE_FETCH"), "Count"), is(16L));
+      assertThat(
+          (Double) server.getAttribute(stage("PRICE_FETCH"), "P50Millis"),
+          greaterThanOrEqualTo(1000.0));
+      assertThat(server.getAttribute(stage("DISCOUNT"), "Count"), is(16L));
+      assertThat(server.getAttribute(stage("JOIN"), "Count"), is(1L));
+      ObjectName executor = new ObjectName("es.islomar.bestpricefinder:type=Executor,finder=test");
+      assertThat((Long) server.getAttribute(executor, "CompletedCount"), greaterThanOrEqualTo(32L));
+    } finally {
+      this.bestPriceFinder.getMetrics().unregisterMBeans();
+    }
+  }
+
+  @Test
+  // Only 8 shop calls are admitted: the other shops are reported at once instead of waiting
+  public void reject_the_shops_beyond_the_capacity_of_the_bulkhead() {
+    List<Shop> shops =
+        IntStream.range(0, 16).mapToObj(i -> new Shop("Shop" + i)).collect(toList());
+    Bulkhead bulkhead = new Bulkhead(Executors.newFixedThreadPool(4), 4, 1, 4);
+    this.bestPriceFinder = new BestPriceFinder(shops, new ShopService(false), bulkhead, false);
+
+    List<ShopResult<String>> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(
+            ANY_PRODUCT, Duration.ofSeconds(5));
+
+    assertThat(
+        prices.stream().filter(price -> price.getStatus() == ShopResult.Status.SUCCEEDED).count(),
+        is(8L));
+    assertThat(
+        prices.stream().filter(price -> price.getStatus() == ShopResult.Status.REJECTED).count(),
+        is(8L));
+    assertThat(bulkhead.getRejectedCalls(), is(8L));
+  }
+
+  @Test
+  // After two failures in a row BrokenShop is not called any more
+  public void report_the_shops_with_an_open_circuit_as_unavailable_without_calling_them() {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"), new Shop("BrokenShop"));
+    ShopCircuitBreakers circuitBreakers =
+        new ShopCircuitBreakers(
+            () ->
+                new CircuitBreaker(
+                    2, 2, 0.5, Duration.ofSeconds(5), 1.0, Duration.ofMinutes(1), 1));
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops,
+            new FlakyShopService(),
+            new ExchangeRateProvider(true),
+            Executors.newFixedThreadPool(2),
+            null,
+            circuitBreakers,
+            true);
+    Duration timeout = Duration.ofSeconds(5);
+    this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT, timeout);
+    this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT, timeout);
+
+    List<ShopResult<String>> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT, timeout);
+
+    assertThat(prices.get(0).getStatus(), is(ShopResult.Status.SUCCEEDED));
+    assertThat(prices.get(1).getStatus(), is(ShopResult.Status.UNAVAILABLE));
+    assertThat(circuitBreakers.forShop("BrokenShop").getState(), is(CircuitBreaker.State.OPEN));
+    assertThat(circuitBreakers.forShop("BrokenShop").getNotPermittedCalls(), is(1L));
+  }
+
+  @Test
+  // Once the circuits are HALF_OPEN, the probe of BestPrices closes its circuit and the probe of
+  // BrokenShop opens its circuit again
+  public void let_the_probe_calls_decide_whether_a_shop_is_called_again() throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"), new Shop("BrokenShop"));
+    ShopCircuitBreakers circuitBreakers = shortlyOpenCircuitBreakers();
+    shops.forEach(shop -> open(circuitBreakers.forShop(shop.getName())));
+    this.bestPriceFinder =
+        withCircuitBreakers(shops, Executors.newFixedThreadPool(2), circuitBreakers);
+    Thread.sleep(300);
+
+    List<ShopResult<String>> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(
+            ANY_PRODUCT, Duration.ofSeconds(5));
+
+    assertThat(prices.get(0).getStatus(), is(ShopResult.Status.SUCCEEDED));
+    assertThat(prices.get(1).getStatus(), is(ShopResult.Status.FAILED));
+    assertThat(circuitBreakers.forShop("BestPrices").getState(), is(CircuitBreaker.State.CLOSED));
+    assertThat(circuitBreakers.forShop("BrokenShop").getState(), is(CircuitBreaker.State.OPEN));
+  }
+
+  @Test
+  // The only thread of the pool is busy: the probe times out before it starts, and it must give
+  // its permission back, or the shop would stay UNAVAILABLE for good
+  public void let_another_probe_through_when_a_probe_is_cancelled_before_it_starts()
+      throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"));
+    ShopCircuitBreakers circuitBreakers = shortlyOpenCircuitBreakers();
+    open(circuitBreakers.forShop("BestPrices"));
+    ExecutorService executor = Executors.newFixedThreadPool(1);
+    this.bestPriceFinder = withCircuitBreakers(shops, executor, circuitBreakers);
+    CountDownLatch busy = new CountDownLatch(1);
+    executor.execute(() -> awaitQuietly(busy));
+    Thread.sleep(300);
+
+    List<ShopResult<String>> cancelled =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(
+            ANY_PRODUCT, Duration.ofMillis(200));
+    busy.countDown();
+    List<ShopResult<String>> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(
+            ANY_PRODUCT, Duration.ofSeconds(5));
+
+    assertThat(cancelled.get(0).getStatus(), is(ShopResult.Status.TIMED_OUT));
+    assertThat(prices.get(0).getStatus(), is(ShopResult.Status.SUCCEEDED));
+    assertThat(circuitBreakers.forShop("BestPrices").getState(), is(CircuitBreaker.State.CLOSED));
+    executor.shutdown();
+  }
+
+  @Test
+  // SlowShop never answers before the deadline: every query that gives up on it counts as a
+  // failed call, so its circuit opens like the one of a failing shop
+  public void open_the_circuit_of_a_shop_that_always_exceeds_the_deadline() {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"), new Shop("SlowShop"));
+    ShopCircuitBreakers circuitBreakers = longOpenCircuitBreakers();
+    this.bestPriceFinder =
+        withCircuitBreakers(shops, Executors.newFixedThreadPool(2), circuitBreakers);
+    Duration timeout = Duration.ofSeconds(1);
+    this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT, timeout);
+    this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT, timeout);
+
+    List<ShopResult<String>> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT, timeout);
+
+    assertThat(prices.get(0).getStatus(), is(ShopResult.Status.SUCCEEDED));
+    assertThat(prices.get(1).getStatus(), is(ShopResult.Status.UNAVAILABLE));
+    assertThat(circuitBreakers.forShop("SlowShop").getState(), is(CircuitBreaker.State.OPEN));
+  }
+
+  @Test
+  // A probe given back instead would let SlowShop be probed forever
+  public void open_the_circuit_again_when_a_probe_exceeds_the_deadline() throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("SlowShop"));
+    ShopCircuitBreakers circuitBreakers = shortlyOpenCircuitBreakers();
+    open(circuitBreakers.forShop("SlowShop"));
+    this.bestPriceFinder =
+        withCircuitBreakers(shops, Executors.newFixedThreadPool(1), circuitBreakers);
+    Thread.sleep(300);
+
+    List<ShopResult<String>> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(
+            ANY_PRODUCT, Duration.ofMillis(200));
+
+    assertThat(prices.get(0).getStatus(), is(ShopResult.Status.TIMED_OUT));
+    assertThat(circuitBreakers.forShop("SlowShop").getState(), is(CircuitBreaker.State.OPEN));
+  }
+
+  @Test
+  // Only the queries with a ShopResult or a QuoteBatch per shop report them as UNAVAILABLE
+  public void leave_the_shops_with_an_open_circuit_out_of_the_prices() {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"), new Shop("BrokenShop"));
+    ShopCircuitBreakers circuitBreakers = longOpenCircuitBreakers();
+    open(circuitBreakers.forShop("BrokenShop"));
+    this.bestPriceFinder =
+        withCircuitBreakers(shops, Executors.newFixedThreadPool(2), circuitBreakers);
+
+    List<String> prices =
+        this.bestPriceFinder.findPricesWithStreamsAndAsyncAndExecutor(ANY_PRODUCT);
+    List<String> discountedPrices = this.bestPriceFinder.asyncFindPricesWithDiscounts(ANY_PRODUCT);
+    List<DiscountedPrice> discountedNumbers =
+        this.bestPriceFinder.findDiscountedPrices(ANY_PRODUCT);
+
+    assertThat(prices, hasSize(1));
+    assertTrue(prices.get(0).startsWith("BestPrices"));
+    assertThat(discountedPrices, hasSize(1));
+    assertTrue(discountedPrices.get(0).startsWith("BestPrices"));
+    assertThat(discountedNumbers, hasSize(1));
+    assertThat(circuitBreakers.forShop("BrokenShop").getNotPermittedCalls(), is(3L));
+  }
+
+  @Test
+  // These queries call the shops on the calling thread, the common pool or the timer, not on the
+  // Executor: they must not call BrokenShop either
+  public void leave_the_shops_with_an_open_circuit_out_of_every_query() {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"), new Shop("BrokenShop"));
+    ShopCircuitBreakers circuitBreakers = longOpenCircuitBreakers();
+    open(circuitBreakers.forShop("BrokenShop"));
+    this.bestPriceFinder =
+        withCircuitBreakers(shops, Executors.newFixedThreadPool(2), circuitBreakers);
+
+    assertThat(this.bestPriceFinder.findPricesSequential(ANY_PRODUCT), hasSize(1));
+    assertThat(this.bestPriceFinder.findPricesWithParallel(ANY_PRODUCT), hasSize(1));
+    assertThat(this.bestPriceFinder.findPricesWithStreamsAndAsync(ANY_PRODUCT), hasSize(1));
+    assertThat(this.bestPriceFinder.futurePriceInUSD(ANY_PRODUCT), hasSize(1));
+    assertThat(this.bestPriceFinder.syncFindPricesWithDiscounts(ANY_PRODUCT), hasSize(1));
+    assertThat(this.bestPriceFinder.nonBlockingFindPricesWithDiscounts(ANY_PRODUCT), hasSize(1));
+    Map<String, List<ShopPrice>> basket =
+        this.bestPriceFinder.findPricesWithDiscounts(Arrays.asList("myPhone", "myTablet"), 2);
+    assertThat(basket.get("myPhone"), hasSize(1));
+    assertThat(basket.get("myTablet").get(0).getShopName(), is("BestPrices"));
+    assertThat(circuitBreakers.forShop("BrokenShop").getNotPermittedCalls(), is(8L));
+  }
+
+  @Test
+  // The calls made on the calling thread count for the circuit as much as the ones on the Executor
+  public void open_the_circuit_of_a_shop_that_fails_in_the_sequential_query() {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrices"), new Shop("BrokenShop"));
+    ShopCircuitBreakers circuitBreakers = longOpenCircuitBreakers();
+    this.bestPriceFinder =
+        withCircuitBreakers(shops, Executors.newFixedThreadPool(2), circuitBreakers);
+    assertThrows(ShopException.class, () -> this.bestPriceFinder.findPricesSequential(ANY_PRODUCT));
+    assertThrows(ShopException.class, () -> this.bestPriceFinder.findPricesSequential(ANY_PRODUCT));
+
+    List<String> prices = this.bestPriceFinder.findPricesSequential(ANY_PRODUCT);
+
+    assertThat(prices, hasSize(1));
+    assertTrue(prices.get(0).startsWith("BestPrices"));
+    assertThat(circuitBreakers.forShop("BestPrices").getState(), is(CircuitBreaker.State.CLOSED));
+    assertThat(circuitBreakers.forShop("BrokenShop").getState(), is(CircuitBreaker.State.OPEN));
+  }
+
+  @Test
+  public void find_the_cheapest_prices_after_the_discount() {
+    List<Shop> shops =
+        Arrays.asList(
+            new Shop("Fast120"), new Shop("Fast80"), new Shop("Fast100"), new Shop("Fast90"));
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops, new FixedPriceShopService(), Executors.newFixedThreadPool(4), true);
+
+    List<ShopPrice> topPrices = this.bestPriceFinder.findTopK(ANY_PRODUCT, 2);
+    Optional<ShopPrice> bestPrice = this.bestPriceFinder.findBestPrice(ANY_PRODUCT);
+
+    assertThat(topPrices.get(0).getShopName(), is("Fast80"));
+    assertThat(topPrices.get(0).getPrice(), is(80.0));
+    assertThat(topPrices.get(1).getShopName(), is("Fast90"));
+    assertThat(bestPrice.get().getShopName(), is("Fast80"));
+  }
+
+  @Test
+  // A heap of Integer.MAX_VALUE prices would not fit in memory
+  public void find_the_prices_of_every_shop_when_asked_for_more_than_there_are() {
+    List<Shop> shops = Arrays.asList(new Shop("Fast120"), new Shop("Fast80"), new Shop("Fast100"));
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops, new FixedPriceShopService(), Executors.newFixedThreadPool(3), true);
+
+    List<ShopPrice> topPrices = this.bestPriceFinder.findTopK(ANY_PRODUCT, Integer.MAX_VALUE);
+
+    assertThat(
+        topPrices.stream().map(ShopPrice::getShopName).collect(toList()),
+        contains("Fast80", "Fast100", "Fast120"));
+  }
+
+  @Test
+  // The slow shops are cheaper, but the price of Fast50 is good enough: nobody waits for them
+  public void stop_looking_for_prices_once_a_good_enough_one_is_found() {
+    List<Shop> shops = Arrays.asList(new Shop("Slow10"), new Shop("Fast50"), new Shop("Slow20"));
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops, new FixedPriceShopService(), Executors.newFixedThreadPool(4), true);
+    long start = System.nanoTime();
+
+    Optional<ShopPrice> bestPrice = this.bestPriceFinder.findBestPrice(ANY_PRODUCT, 60.0);
+
+    long totalTimeElapsed = ((System.nanoTime() - start) / 1_000_000);
+    System.out.println(String.format("Time elapsed: %s msecs", totalTimeElapsed));
+    assertThat(bestPrice.get().getShopName(), is("Fast50"));
+    assertThat(totalTimeElapsed, lessThan(3_000L));
+  }
+
+  @Test
+  public void find_the_discounted_prices_as_numbers_and_render_them_only_when_asked() {
+    List<Shop> shops = Arrays.asList(new Shop("Fast120"), new Shop("Fast80"));
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops, new FixedPriceShopService(), Executors.newFixedThreadPool(4), true);
+
+    List<DiscountedPrice> prices = this.bestPriceFinder.findDiscountedPrices(ANY_PRODUCT);
+
+    assertThat(prices.get(1).getPrice(), is(80.0));
+    assertThat(prices.get(1).getDiscountCode(), is(DiscountCode.NONE));
+    assertThat(prices.get(1).toString(), is("Fast80 price is 80.0"));
+  }
+
+  @Test
+  public void find_the_prices_with_discounts_in_a_quote_batch() {
+    List<Shop> shops = Arrays.asList(new Shop("Fast120"), new Shop("Slow10"), new Shop("Fast80"));
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops, new FixedPriceShopService(), Executors.newFixedThreadPool(4), true);
+
+    QuoteBatch batch = this.bestPriceFinder.findQuoteBatch(ANY_PRODUCT, Duration.ofMillis(1500));
+
+    assertThat(batch.status(0), is(ShopResult.Status.SUCCEEDED));
+    assertThat(batch.status(1), is(ShopResult.Status.TIMED_OUT));
+    assertThat(batch.price(1), is(Double.NaN));
+    assertThat(batch.shopName(batch.indexOfCheapest()), is("Fast80"));
+    assertThat(batch.prices().min().getAsDouble(), is(80.0));
+  }
+
+  @Test
+  // As a ShopRegistry does, the list builds a new Shop on every get()
+  public void read_every_shop_only_once_whatever_the_number_of_queries() {
+    AtomicInteger decodedShops = new AtomicInteger();
+    List<Shop> shops =
+        new AbstractList<>() {
+          @Override
+          public Shop get(int index) {
+            decodedShops.incrementAndGet();
+            return new Shop("Fast" + (index + 1) * 10);
+          }
+
+          @Override
+          public int size() {
+            return 3;
+          }
+        };
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            shops, new FixedPriceShopService(), Executors.newFixedThreadPool(3), true);
+
+    List<ShopPrice> topPrices = this.bestPriceFinder.findTopK(ANY_PRODUCT, 2);
+    QuoteBatch batch = this.bestPriceFinder.findQuoteBatch(ANY_PRODUCT, Duration.ofSeconds(5));
+
+    assertThat(topPrices.get(0).getShopName(), is("Fast10"));
+    assertThat(batch.shopName(batch.indexOfCheapest()), is("Fast10"));
+    assertThat(decodedShops.get(), is(3));
+  }
+
+  @Test
+  // The only thread of the pool is busy with the slow shop: it must be interrupted once the
+  // query gives up on it, or the next task would wait 10 seconds for it
+  public void free_the_threads_of_the_shops_that_timed_out() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    this.bestPriceFinder =
+        new BestPriceFinder(
+            Arrays.asList(new Shop("Slow10")), new FixedPriceShopService(), executor, true);
+
+    QuoteBatch batch = this.bestPriceFinder.findQuoteBatch(ANY_PRODUCT, Duration.ofMillis(200));
+
+    assertThat(batch.status(0), is(ShopResult.Status.TIMED_OUT));
+    CompletableFuture.runAsync(() -> {}, executor).get(2, TimeUnit.SECONDS);
+    executor.shutdown();
+  }
+
+  @Test
+  public void convert_the_prices_of_a_quote_batch_with_a_single_rate() {
+    QuoteBatch batch = this.bestPriceFinder.findPricesInUSD(ANY_PRODUCT);
+
+    assertThat(batch.count(ShopResult.Status.SUCCEEDED), is(batch.size()));
+    assertTrue(batch.prices().allMatch(price -> price > 0));
+  }
+
+  @Test
+  // Every shop call is sleeping in one of the two threads of the pool: cancelling the query must
+  // interrupt them, or the next task would wait 10 seconds for a thread
+  public void free_the_threads_of_a_cancelled_query_right_away() throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("Slow10"), new Shop("Slow20"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    this.bestPriceFinder = new BestPriceFinder(shops, new FixedPriceShopService(), executor, true);
+
+    CompletableFuture<List<DiscountedPrice>> prices =
+        this.bestPriceFinder.findDiscountedPricesAsync(ANY_PRODUCT, false);
+    Thread.sleep(200);
+    prices.cancel(true);
+
+    CompletableFuture.runAsync(() -> {}, executor).get(2, TimeUnit.SECONDS);
+    assertTrue(prices.isCancelled());
+  }
+
+  @Test
+  // Same as above, for a subscription to the published prices
+  public void free_the_threads_of_a_cancelled_subscription_right_away() throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("Slow10"), new Shop("Slow20"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    this.bestPriceFinder = new BestPriceFinder(shops, new FixedPriceShopService(), executor, true);
+    CompletableFuture<Flow.Subscription> subscribed = new CompletableFuture<>();
+    this.bestPriceFinder
+        .publishPricesWithDiscounts(ANY_PRODUCT)
+        .subscribe(
+            new Flow.Subscriber<DiscountedPrice>() {
+              @Override
+              public void onSubscribe(Flow.Subscription subscription) {
+                subscribed.complete(subscription);
+                subscription.request(2);
+              }
+
+              @Override
+              public void onNext(DiscountedPrice price) {}
+
+              @Override
+              public void onError(Throwable throwable) {}
+
+              @Override
+              public void onComplete() {}
+            });
+    Thread.sleep(200);
+
+    subscribed.get().cancel();
+
+    CompletableFuture.runAsync(() -> {}, executor).get(2, TimeUnit.SECONDS);
+    executor.shutdown();
+  }
+
+  @Test
+  // Both queries share the price calculations of the same shops: cancelling one of them must not
+  // cancel the calculations the other one is still waiting for
+  public void cancelling_a_query_does_not_fail_another_one_sharing_its_prices() throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("BestPrice"), new Shop("MyFavoriteShop"));
+    ShopService shopService = new ShopService(false);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    this.bestPriceFinder = new BestPriceFinder(shops, shopService, executor, false);
+
+    CompletableFuture<List<DiscountedPrice>> cancelled =
+        this.bestPriceFinder.findDiscountedPricesAsync(ANY_PRODUCT, false);
+    CompletableFuture<List<DiscountedPrice>> prices =
+        this.bestPriceFinder.findDiscountedPricesAsync(ANY_PRODUCT, false);
+    Thread.sleep(200);
+    cancelled.cancel(true);
+
+    assertThat(prices.get(5, TimeUnit.SECONDS).size(), is(2));
+    assertThat(shopService.getCoalescedCalls(), is(2L));
+    assertTrue(cancelled.isCancelled());
+    executor.shutdown();
+  }
+
+  @Test
+  public void cancel_the_other_shops_once_one_fails_in_fail_fast_mode() throws Exception {
+    List<Shop> shops = Arrays.asList(new Shop("Slow10"), new Shop("Broken"), new Shop("Slow20"));
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    this.bestPriceFinder = new BestPriceFinder(shops, new FixedPriceShopService(), executor, true);
+    long start = System.nanoTime();
+
+    CompletableFuture<List<DiscountedPrice>> prices =
+        this.bestPriceFinder.findDiscountedPricesAsync(ANY_PRODUCT, true);
+
+    ExecutionException failure =
+        assertThrows(ExecutionException.class, () -> prices.get(5, TimeUnit.SECONDS));
+    CompletableFuture.runAsync(() -> {}, executor).get(2, TimeUnit.SECONDS);
+    assertThat(failure.getCause(), instanceOf(ShopException.class));
+    assertThat((System.nanoTime() - start) / 1_000_000, lessThan(5_000L));
+  }
+
+  // Circuits of 2 calls, open for 100 milliseconds, closed again after a single probe
+  private static ShopCircuitBreakers shortlyOpenCircuitBreakers() {
+    return new ShopCircuitBreakers(
+        () ->
+            new CircuitBreaker(2, 2, 0.5, Duration.ofSeconds(5), 1.0, Duration.ofMillis(100), 1));
+  }
+
+  // Circuits of 2 calls, open for a minute
+  private static ShopCircuitBreakers longOpenCircuitBreakers() {
+    return new ShopCircuitBreakers(
+        () -> new CircuitBreaker(2, 2, 0.5, Duration.ofSeconds(5), 1.0, Duration.ofMinutes(1), 1));
+  }
+
+  private static void open(CircuitBreaker circuitBreaker) {
+    circuitBreaker.tryAcquirePermission().onFailure(0);
+    circuitBreaker.tryAcquirePermission().onFailure(0);
+  }
+
+  private static BestPriceFinder withCircuitBreakers(
+      List<Shop> shops, ExecutorService executor, ShopCircuitBreakers circuitBreakers) {
+    return new BestPriceFinder(
+        shops,
+        new FlakyShopService(),
+        new ExchangeRateProvider(true),
+        executor,
+        null,
+        circuitBreakers,
+        true);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ObjectName stage(String name) throws JMException {
+    return new ObjectName(
+        "es.islomar.bestpricefinder:type=PipelineStage,finder=test,name=" + name);
+  }
+
+  // Takes far too long for "SlowShop" and fails for "BrokenShop"
+  private static class FlakyShopService extends ShopService {
+
+    private FlakyShopService() {
+      super(true);
+    }
+
+    @Override
+    public String getPriceWithDiscount(String product, Shop shop) {
+      if (shop.getName().equals("SlowShop")) {
+        Util.delay(false);
+        Util.delay(false);
+        Util.delay(false);
+      }
+      if (shop.getName().equals("BrokenShop")) {
+        throw new ShopException("Something bad happened!");
+      }
+      return super.getPriceWithDiscount(product, shop);
+    }
+  }
+
+  // The price is in the name of the shop, the shops named "Slow..." take 10 seconds to answer and
+  // the ones named "Broken..." fail
+  private static class FixedPriceShopService extends ShopService {
+
+    @Override
+    public void encodePriceWithDiscount(
+        String product, Shop shop, int shopId, ByteBuffer quotes, long requestId) {
+      if (shop.getName().startsWith("Slow")) {
+        Util.delay(10_000L);
+      }
+      if (shop.getName().startsWith("Broken")) {
+        throw new ShopException("Something bad happened!");
+      }
+      double price = Double.parseDouble(shop.getName().substring(4));
+      QuoteCodec.encode(quotes, shopId, price, DiscountCode.NONE);
+    }
+  }
 }
@@ -0,0 +1,125 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class BulkheadTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final CountDownLatch shopsCanAnswer = new CountDownLatch(1);
+
+  @AfterEach
+  public void tearDown() {
+    this.shopsCanAnswer.countDown();
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  public void reject_the_calls_to_a_saturated_shop_right_away() {
+    Bulkhead bulkhead = new Bulkhead(this.executor, 10, 2, 10);
+    bulkhead.supplyAsync("SlowShop", this::slowPrice);
+    bulkhead.supplyAsync("SlowShop", this::slowPrice);
+
+    CompletableFuture<Double> rejected = bulkhead.supplyAsync("SlowShop", this::slowPrice);
+    CompletableFuture<Double> otherShop = bulkhead.supplyAsync("BestPrices", () -> 10.0);
+
+    assertThat(rejected.isCompletedExceptionally(), is(true));
+    CompletionException e = assertThrows(CompletionException.class, rejected::join);
+    assertThat(e.getCause(), instanceOf(BulkheadFullException.class));
+    assertThat(otherShop.join(), is(10.0));
+    assertThat(bulkhead.getRejectedCalls(), is(1L));
+  }
+
+  @Test
+  public void queue_the_calls_beyond_the_concurrency_limit_up_to_the_queue_size() {
+    Bulkhead bulkhead = new Bulkhead(this.executor, 2, 10, 1);
+    IntStream.range(0, 3).forEach(i -> bulkhead.supplyAsync("Shop" + i, this::slowPrice));
+
+    CompletableFuture<Double> rejected = bulkhead.supplyAsync("Shop3", this::slowPrice);
+
+    assertThat(bulkhead.getRunningCalls(), is(2));
+    assertThat(bulkhead.getQueuedCalls(), is(1));
+    assertThat(rejected.isCompletedExceptionally(), is(true));
+  }
+
+  @Test
+  public void run_the_queued_calls_as_soon_as_the_running_ones_finish() {
+    Bulkhead bulkhead = new Bulkhead(this.executor, 1, 10, 10);
+    CompletableFuture<Double> running = bulkhead.supplyAsync("SlowShop", this::slowPrice);
+    CompletableFuture<Double> queued = bulkhead.supplyAsync("BestPrices", () -> 10.0);
+
+    assertThat(queued.isDone(), is(false));
+    this.shopsCanAnswer.countDown();
+
+    assertThat(queued.join(), is(10.0));
+    assertThat(running.join(), is(20.0));
+    assertThat(bulkhead.getRunningCalls(), is(0));
+    assertThat(bulkhead.getQueuedCalls(), is(0));
+  }
+
+  @Test
+  public void free_the_slot_of_a_failed_call() {
+    Bulkhead bulkhead = new Bulkhead(this.executor, 1, 1, 0);
+    CompletableFuture<Double> failed =
+        bulkhead.supplyAsync(
+            "BrokenShop",
+            () -> {
+              throw new ShopException("Something bad happened!");
+            });
+
+    CompletionException e = assertThrows(CompletionException.class, failed::join);
+
+    assertThat(e.getCause(), instanceOf(ShopException.class));
+    assertThat(bulkhead.supplyAsync("BrokenShop", () -> 10.0).join(), is(10.0));
+  }
+
+  @Test
+  // A caller without a deadline would wait for it forever
+  public void fail_the_call_and_free_its_slot_when_the_shop_throws_an_error() {
+    Bulkhead bulkhead = new Bulkhead(this.executor, 1, 1, 0);
+    CompletableFuture<Double> failed =
+        bulkhead.supplyAsync(
+            "BrokenShop",
+            () -> {
+              throw new AssertionError("Something really bad happened!");
+            });
+
+    CompletionException e = assertThrows(CompletionException.class, failed::join);
+
+    assertThat(e.getCause(), instanceOf(AssertionError.class));
+    assertThat(bulkhead.supplyAsync("BrokenShop", () -> 10.0).join(), is(10.0));
+  }
+
+  @Test
+  public void forget_the_shops_without_calls_in_flight() {
+    Bulkhead bulkhead = new Bulkhead(this.executor, 10, 1, 10);
+    CompletableFuture<Double> running = bulkhead.supplyAsync("SlowShop", this::slowPrice);
+    IntStream.range(0, 100).forEach(i -> bulkhead.supplyAsync("Shop" + i, () -> 10.0).join());
+
+    assertThat(bulkhead.getShopsWithCalls(), is(1));
+    this.shopsCanAnswer.countDown();
+    running.join();
+    assertThat(bulkhead.getShopsWithCalls(), is(0));
+  }
+
+  private double slowPrice() {
+    try {
+      this.shopsCanAnswer.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return 20.0;
+  }
+}
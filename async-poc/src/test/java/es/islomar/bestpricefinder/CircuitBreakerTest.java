@@ -0,0 +1,178 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+
+import es.islomar.bestpricefinder.CircuitBreaker.Permission;
+import es.islomar.bestpricefinder.CircuitBreaker.State;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class CircuitBreakerTest {
+
+  private static final long FAST_CALL = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW_CALL = TimeUnit.SECONDS.toNanos(2);
+  private final AtomicLong clock = new AtomicLong();
+  // Window of 4 calls, opens with half of them failed or all of them slow, for 10 seconds
+  private final CircuitBreaker circuitBreaker =
+      new CircuitBreaker(
+          4, 4, 0.5, Duration.ofSeconds(1), 1.0, Duration.ofSeconds(10), 2, this.clock::get);
+
+  @Test
+  public void stay_closed_while_the_failure_rate_is_below_the_threshold() {
+    permit().onFailure(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getState(), is(State.CLOSED));
+    assertThat(this.circuitBreaker.getFailureRate(), is(0.25));
+    assertThat(this.circuitBreaker.tryAcquirePermission(), notNullValue());
+  }
+
+  @Test
+  public void open_and_reject_the_calls_when_the_failure_rate_reaches_the_threshold() {
+    permit().onFailure(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onFailure(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getState(), is(State.OPEN));
+    assertThat(this.circuitBreaker.tryAcquirePermission(), nullValue());
+    assertThat(this.circuitBreaker.getNotPermittedCalls(), is(1L));
+  }
+
+  @Test
+  public void forget_the_outcomes_that_leave_the_window() {
+    permit().onFailure(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getFailureRate(), is(0.0));
+  }
+
+  @Test
+  public void open_when_every_call_is_slow() {
+    for (int i = 0; i < 4; i++) {
+      permit().onSuccess(SLOW_CALL);
+    }
+
+    assertThat(this.circuitBreaker.getState(), is(State.OPEN));
+  }
+
+  @Test
+  public void let_a_few_probes_through_once_the_open_duration_has_elapsed() {
+    open();
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    assertThat(this.circuitBreaker.tryAcquirePermission(), notNullValue());
+    assertThat(this.circuitBreaker.tryAcquirePermission(), notNullValue());
+    assertThat(this.circuitBreaker.tryAcquirePermission(), nullValue());
+    assertThat(this.circuitBreaker.getState(), is(State.HALF_OPEN));
+  }
+
+  @Test
+  public void close_when_every_probe_succeeds() {
+    open();
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Permission firstProbe = permit();
+    Permission secondProbe = permit();
+
+    firstProbe.onSuccess(FAST_CALL);
+    secondProbe.onSuccess(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getState(), is(State.CLOSED));
+    assertThat(this.circuitBreaker.getFailureRate(), is(0.0));
+  }
+
+  @Test
+  public void open_again_when_a_probe_fails() {
+    open();
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    permit().onFailure(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getState(), is(State.OPEN));
+    assertThat(this.circuitBreaker.tryAcquirePermission(), nullValue());
+  }
+
+  @Test
+  // Otherwise a probe that is never made would keep the circuit HALF_OPEN, rejecting every call
+  public void give_back_the_probes_that_are_released() {
+    open();
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Permission cancelledProbe = permit();
+    Permission probe = permit();
+
+    cancelledProbe.release();
+    cancelledProbe.release();
+
+    assertThat(this.circuitBreaker.tryAcquirePermission(), notNullValue());
+    assertThat(this.circuitBreaker.tryAcquirePermission(), nullValue());
+    probe.onSuccess(FAST_CALL);
+    assertThat(this.circuitBreaker.getState(), is(State.HALF_OPEN));
+  }
+
+  @Test
+  // Cancelled by its caller before it was slow: it says nothing about the shop
+  public void give_back_a_probe_cancelled_before_it_was_slow() {
+    open();
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Permission cancelledProbe = permit();
+    Permission probe = permit();
+
+    cancelledProbe.onCancelled(FAST_CALL);
+    probe.onSuccess(FAST_CALL);
+
+    assertThat(this.circuitBreaker.tryAcquirePermission(), notNullValue());
+    assertThat(this.circuitBreaker.getState(), is(State.HALF_OPEN));
+  }
+
+  @Test
+  public void count_the_calls_cancelled_once_they_were_slow_as_slow_calls() {
+    for (int i = 0; i < 4; i++) {
+      permit().onCancelled(SLOW_CALL);
+    }
+
+    assertThat(this.circuitBreaker.getState(), is(State.OPEN));
+  }
+
+  @Test
+  public void not_take_a_call_permitted_before_the_circuit_opened_for_a_probe() {
+    Permission lateCall = permit();
+    open();
+    this.clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    Permission probe = permit();
+
+    lateCall.onSuccess(FAST_CALL);
+    probe.onSuccess(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getState(), is(State.HALF_OPEN));
+  }
+
+  @Test
+  public void count_only_the_first_outcome_of_a_permission() {
+    Permission permission = permit();
+    permission.onFailure(FAST_CALL);
+    permission.onFailure(FAST_CALL);
+    permit().onSuccess(FAST_CALL);
+
+    assertThat(this.circuitBreaker.getFailureRate(), is(0.5));
+  }
+
+  private Permission permit() {
+    return this.circuitBreaker.tryAcquirePermission();
+  }
+
+  private void open() {
+    for (int i = 0; i < 4; i++) {
+      permit().onFailure(FAST_CALL);
+    }
+  }
+}
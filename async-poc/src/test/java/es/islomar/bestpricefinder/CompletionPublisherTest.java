@@ -0,0 +1,181 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CompletionPublisherTest {
+
+  private CompletableFuture<String> first;
+  private CompletableFuture<String> second;
+  private CompletableFuture<String> third;
+  private CompletionPublisher<String> publisher;
+  private RecordingSubscriber subscriber;
+
+  @BeforeEach
+  public void setUp() {
+    this.first = new CompletableFuture<>();
+    this.second = new CompletableFuture<>();
+    this.third = new CompletableFuture<>();
+    this.publisher =
+        new CompletionPublisher<>(() -> Arrays.asList(this.first, this.second, this.third));
+    this.subscriber = new RecordingSubscriber();
+  }
+
+  @Test
+  public void publish_the_values_in_the_order_they_complete() {
+    this.publisher.subscribe(this.subscriber);
+    this.subscriber.subscription.request(Long.MAX_VALUE);
+
+    this.third.complete("third");
+    this.first.complete("first");
+    this.second.complete("second");
+
+    assertThat(this.subscriber.values, contains("third", "first", "second"));
+    assertTrue(this.subscriber.completed);
+  }
+
+  @Test
+  public void never_publish_more_values_than_requested() {
+    this.publisher.subscribe(this.subscriber);
+    this.subscriber.subscription.request(1);
+
+    this.first.complete("first");
+    this.second.complete("second");
+    this.third.complete("third");
+
+    assertThat(this.subscriber.values, contains("first"));
+    assertThat(this.subscriber.completed, is(false));
+
+    this.subscriber.subscription.request(2);
+
+    assertThat(this.subscriber.values, contains("first", "second", "third"));
+    assertTrue(this.subscriber.completed);
+  }
+
+  @Test
+  public void publish_the_error_of_a_failed_future_and_cancel_the_others() {
+    this.publisher.subscribe(this.subscriber);
+    this.subscriber.subscription.request(Long.MAX_VALUE);
+
+    this.second.completeExceptionally(new ShopException("Something bad happened!"));
+
+    assertThat(this.subscriber.error, instanceOf(ShopException.class));
+    assertTrue(this.first.isCancelled());
+    assertTrue(this.third.isCancelled());
+  }
+
+  @Test
+  public void stop_publishing_once_cancelled() {
+    this.publisher.subscribe(this.subscriber);
+    this.subscriber.subscription.request(Long.MAX_VALUE);
+
+    this.subscriber.subscription.cancel();
+    this.first.complete("first");
+
+    assertThat(this.subscriber.values, empty());
+    assertThat(this.subscriber.completed, is(false));
+    assertTrue(this.second.isCancelled());
+  }
+
+  @Test
+  public void start_the_futures_once_subscribed() {
+    AtomicInteger started = new AtomicInteger();
+    CompletionPublisher<String> publisher =
+        new CompletionPublisher<>(
+            () -> {
+              started.incrementAndGet();
+              return List.of(this.first);
+            });
+    RecordingSubscriber subscriber =
+        new RecordingSubscriber() {
+          @Override
+          public void onSubscribe(Flow.Subscription subscription) {
+            assertThat(started.get(), is(0));
+            super.onSubscribe(subscription);
+          }
+        };
+
+    publisher.subscribe(subscriber);
+
+    assertThat(started.get(), is(1));
+  }
+
+  @Test
+  public void never_start_the_futures_if_cancelled_when_subscribed() {
+    AtomicInteger started = new AtomicInteger();
+    CompletionPublisher<String> publisher =
+        new CompletionPublisher<>(
+            () -> {
+              started.incrementAndGet();
+              return List.of(this.first);
+            });
+    RecordingSubscriber subscriber =
+        new RecordingSubscriber() {
+          @Override
+          public void onSubscribe(Flow.Subscription subscription) {
+            subscription.cancel();
+          }
+        };
+
+    publisher.subscribe(subscriber);
+
+    assertThat(started.get(), is(0));
+  }
+
+  @Test
+  public void publish_the_error_of_a_query_that_cannot_start() {
+    CompletionPublisher<String> publisher =
+        new CompletionPublisher<>(
+            () -> {
+              throw new ShopException("Something bad happened!");
+            });
+
+    publisher.subscribe(this.subscriber);
+
+    assertThat(this.subscriber.subscription, is(notNullValue()));
+    assertThat(this.subscriber.error, instanceOf(ShopException.class));
+    assertThat(this.subscriber.completed, is(false));
+  }
+
+  private static class RecordingSubscriber implements Flow.Subscriber<String> {
+
+    private final List<String> values = new CopyOnWriteArrayList<>();
+    private Flow.Subscription subscription;
+    private volatile Throwable error;
+    private volatile boolean completed;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(String value) {
+      this.values.add(value);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      this.error = error;
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed = true;
+    }
+  }
+}
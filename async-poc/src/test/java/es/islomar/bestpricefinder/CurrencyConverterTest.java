@@ -0,0 +1,75 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import es.islomar.bestpricefinder.model.Money;
+import org.junit.jupiter.api.Test;
+
+public class CurrencyConverterTest {
+
+  private final CurrencyConverter converter = new CurrencyConverter();
+
+  @Test
+  public void convert_with_the_same_rates_as_the_exchange_service() {
+    for (Money source : Money.values()) {
+      for (Money destination : Money.values()) {
+        assertThat(
+            this.converter.rate(source, destination),
+            is(destination.getRate() / source.getRate()));
+      }
+    }
+  }
+
+  @Test
+  public void convert_all_the_prices_at_once() {
+    double[] prices = {10.0, 20.0, 30.0};
+    double rate = Money.USD.getRate() / Money.EUR.getRate();
+
+    double[] converted = this.converter.convert(prices, Money.EUR, Money.USD);
+
+    assertThat(converted, is(new double[] {10.0 * rate, 20.0 * rate, 30.0 * rate}));
+    assertThat(prices, is(new double[] {10.0, 20.0, 30.0}));
+  }
+
+  @Test
+  public void convert_the_prices_in_place_with_a_given_rate() {
+    double[] prices = {10.0, 20.0};
+
+    CurrencyConverter.convert(prices, 1.5, prices);
+
+    assertThat(prices, is(new double[] {15.0, 30.0}));
+  }
+
+  @Test
+  public void convert_prices_in_different_currencies() {
+    double[] prices = {10.0, 20.0};
+
+    double[] converted =
+        this.converter.convert(prices, new Money[] {Money.EUR, Money.GBP}, Money.USD);
+
+    assertThat(converted[0], is(10.0 * this.converter.rate(Money.EUR, Money.USD)));
+    assertThat(converted[1], is(20.0 * this.converter.rate(Money.GBP, Money.USD)));
+  }
+
+  @Test
+  public void convert_the_prices_to_every_currency() {
+    double[] prices = {10.0, 20.0};
+
+    double[][] converted = this.converter.convertToAll(prices, Money.EUR);
+
+    for (Money destination : Money.values()) {
+      assertThat(
+          converted[destination.ordinal()],
+          is(this.converter.convert(prices, Money.EUR, destination)));
+    }
+  }
+
+  @Test
+  public void reject_arrays_of_different_length() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> this.converter.convert(new double[2], Money.EUR, Money.USD, new double[1]));
+  }
+}
@@ -0,0 +1,31 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.DiscountedPrice;
+import es.islomar.bestpricefinder.model.Quote;
+import org.junit.jupiter.api.Test;
+
+public class DiscountServiceTest {
+
+  private static final Quote QUOTE = new Quote("BestPrices", 200.0, DiscountCode.GOLD);
+
+  @Test
+  public void apply_the_discount_code_to_the_price() {
+    DiscountedPrice price = DiscountService.discount(QUOTE, true);
+
+    assertThat(price.getShopName(), is("BestPrices"));
+    assertThat(price.getOriginalPrice(), is(200.0));
+    assertThat(price.getDiscountCode(), is(DiscountCode.GOLD));
+    assertThat(price.getPrice(), is(180.0));
+  }
+
+  @Test
+  public void render_the_same_text_as_before() {
+    assertThat(DiscountService.applyDiscount(QUOTE, true), is("BestPrices price is 180.0"));
+    assertThat(
+        DiscountService.applyDiscountAsync(QUOTE, true).join(), is("BestPrices price is 180.0"));
+  }
+}
@@ -0,0 +1,76 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+import es.islomar.bestpricefinder.model.Money;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class ExchangeRateProviderTest {
+
+  private static final Duration TTL = Duration.ofMinutes(1);
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  public void share_the_same_rate_while_the_ttl_has_not_expired() {
+    ExchangeRateProvider provider = newProvider(TTL);
+
+    CompletableFuture<Double> firstRate = provider.getRate(Money.EUR, Money.USD);
+    CompletableFuture<Double> secondRate = provider.getRate(Money.EUR, Money.USD);
+
+    assertThat(secondRate, sameInstance(firstRate));
+    assertThat(firstRate.join(), is(Money.USD.getRate() / Money.EUR.getRate()));
+  }
+
+  @Test
+  public void fetch_the_rate_again_once_the_ttl_has_expired() {
+    ExchangeRateProvider provider = newProvider(TTL);
+
+    CompletableFuture<Double> firstRate = provider.getRate(Money.EUR, Money.USD);
+    this.clock.addAndGet(TTL.toNanos());
+    CompletableFuture<Double> secondRate = provider.getRate(Money.EUR, Money.USD);
+
+    assertThat(secondRate, not(sameInstance(firstRate)));
+  }
+
+  @Test
+  public void keep_a_rate_per_currency_pair() {
+    ExchangeRateProvider provider = newProvider(TTL);
+
+    CompletableFuture<Double> eurToUsd = provider.getRate(Money.EUR, Money.USD);
+    CompletableFuture<Double> usdToEur = provider.getRate(Money.USD, Money.EUR);
+
+    assertThat(usdToEur, not(sameInstance(eurToUsd)));
+    assertThat(usdToEur.join(), is(Money.EUR.getRate() / Money.USD.getRate()));
+  }
+
+  @Test
+  public void fetch_a_new_rate_per_call_without_ttl() {
+    ExchangeRateProvider provider = newProvider(Duration.ZERO);
+
+    CompletableFuture<Double> firstRate = provider.getRate(Money.EUR, Money.USD);
+    CompletableFuture<Double> secondRate = provider.getRate(Money.EUR, Money.USD);
+
+    assertThat(secondRate, not(sameInstance(firstRate)));
+  }
+
+  @Test
+  public void convert_all_the_prices_with_one_rate() {
+    ExchangeRateProvider provider = newProvider(TTL);
+
+    double[] pricesInUSD = provider.convert(new double[] {10, 20}, Money.USD, Money.GBP).join();
+
+    assertThat(pricesInUSD[0], is(10 * Money.GBP.getRate()));
+    assertThat(pricesInUSD[1], is(20 * Money.GBP.getRate()));
+  }
+
+  private ExchangeRateProvider newProvider(Duration ttl) {
+    return new ExchangeRateProvider(true, ttl, ForkJoinPool.commonPool(), this.clock::get);
+  }
+}
@@ -0,0 +1,69 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void give_the_percentiles_with_a_relative_error_below_one_sixteenth() {
+    for (long millis = 1; millis <= 1_000; millis++) {
+      this.histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    assertThat(this.histogram.getCount(), is(1_000L));
+    assertThat(this.histogram.getP50Millis(), is(between(500, 500 * 17 / 16.0)));
+    assertThat(this.histogram.getP90Millis(), is(between(900, 900 * 17 / 16.0)));
+    assertThat(this.histogram.getP99Millis(), is(between(990, 1_000)));
+    assertThat(this.histogram.getMaxMillis(), is(1_000.0));
+    assertThat(this.histogram.getMeanMillis(), is(closeTo(500.5, 0.001)));
+  }
+
+  @Test
+  public void keep_every_value_in_a_bucket_whose_upper_bound_is_not_lower() {
+    for (long value = 0; value < 1_000_000; value += 7) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertThat(LatencyHistogram.highestValueOf(bucket), is(greaterThanOrEqualTo(value)));
+      assertThat(LatencyHistogram.highestValueOf(bucket - 1), is(lessThanOrEqualTo(value)));
+    }
+    assertThat(
+        LatencyHistogram.highestValueOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)),
+        is(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void count_every_value_recorded_concurrently() {
+    CompletableFuture.allOf(
+            IntStream.range(0, 8)
+                .mapToObj(
+                    i ->
+                        CompletableFuture.runAsync(
+                            () -> IntStream.range(0, 100_000).forEach(this.histogram::record)))
+                .toArray(CompletableFuture[]::new))
+        .join();
+
+    assertThat(this.histogram.getCount(), is(800_000L));
+  }
+
+  @Test
+  public void give_zero_when_nothing_was_recorded() {
+    assertThat(this.histogram.getCount(), is(0L));
+    assertThat(this.histogram.getP99Millis(), is(0.0));
+    assertThat(this.histogram.getMeanMillis(), is(0.0));
+  }
+
+  private static org.hamcrest.Matcher<Double> between(double min, double max) {
+    return both(greaterThanOrEqualTo(min)).and(lessThanOrEqualTo(max));
+  }
+}
@@ -0,0 +1,87 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class PriceCacheTest {
+
+  private static final Duration TTL = Duration.ofSeconds(10);
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  public void return_the_cached_price_while_it_is_fresh() {
+    PriceCache priceCache = new PriceCache(TTL, 10, this.clock::get);
+
+    priceCache.get("BestPrices", "myPhone", () -> 1.0);
+    double price = priceCache.get("BestPrices", "myPhone", () -> 2.0);
+
+    assertThat(price, is(1.0));
+    assertThat(priceCache.getHits(), is(1L));
+    assertThat(priceCache.getMisses(), is(1L));
+  }
+
+  @Test
+  public void keep_a_different_price_per_shop_and_product() {
+    PriceCache priceCache = new PriceCache(TTL, 10, this.clock::get);
+
+    priceCache.get("BestPrices", "myPhone", () -> 1.0);
+    double otherShopPrice = priceCache.get("LetsSaveBig", "myPhone", () -> 2.0);
+    double otherProductPrice = priceCache.get("BestPrices", "myTablet", () -> 3.0);
+
+    assertThat(otherShopPrice, is(2.0));
+    assertThat(otherProductPrice, is(3.0));
+    assertThat(priceCache.getMisses(), is(3L));
+  }
+
+  @Test
+  public void calculate_the_price_again_once_the_ttl_has_expired() {
+    PriceCache priceCache = new PriceCache(TTL, 10, this.clock::get);
+
+    priceCache.get("BestPrices", "myPhone", () -> 1.0);
+    this.clock.addAndGet(TTL.toNanos());
+    double price = priceCache.get("BestPrices", "myPhone", () -> 2.0);
+
+    assertThat(price, is(2.0));
+    assertThat(priceCache.getHits(), is(0L));
+    assertThat(priceCache.getMisses(), is(2L));
+  }
+
+  @Test
+  public void evict_the_least_recently_used_price_when_full() {
+    PriceCache priceCache = new PriceCache(TTL, 2, this.clock::get);
+
+    priceCache.get("BestPrices", "myPhone", () -> 1.0);
+    this.clock.incrementAndGet();
+    priceCache.get("LetsSaveBig", "myPhone", () -> 2.0);
+    this.clock.incrementAndGet();
+    priceCache.get("BestPrices", "myPhone", () -> 1.0);
+    this.clock.incrementAndGet();
+    priceCache.get("BuyItAll", "myPhone", () -> 3.0);
+
+    assertThat(priceCache.size(), is(2));
+    assertThat(priceCache.getEvictions(), is(1L));
+    assertThat(priceCache.get("BestPrices", "myPhone", () -> 4.0), is(1.0));
+    assertThat(priceCache.get("LetsSaveBig", "myPhone", () -> 5.0), is(5.0));
+  }
+
+  @Test
+  // 1,000 prices used once, then a hot set of 50 prices used over and over: only the first lookup
+  // of every hot price misses
+  public void keep_the_prices_in_use_in_a_cache_much_larger_than_a_few_entries() {
+    PriceCache priceCache = new PriceCache(TTL, 100, this.clock::get);
+    IntStream.range(0, 1_000).forEach(i -> priceCache.get("ColdShop" + i, "myPhone", () -> 1.0));
+
+    for (int round = 0; round < 200; round++) {
+      IntStream.range(0, 50).forEach(i -> priceCache.get("HotShop" + i, "myPhone", () -> 2.0));
+    }
+
+    assertThat(priceCache.size(), is(100));
+    assertThat(priceCache.getHits(), is(199L * 50));
+    assertThat(priceCache.getMisses(), is(1_050L));
+  }
+}
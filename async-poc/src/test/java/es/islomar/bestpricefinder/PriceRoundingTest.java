@@ -0,0 +1,58 @@
+package es.islomar.bestpricefinder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PriceRoundingTest {
+
+  // The rounding of Util.format() before PriceRounding replaced it
+  private static final DecimalFormat LEGACY_FORMATTER =
+      new DecimalFormat("#.##", new DecimalFormatSymbols(Locale.US));
+
+  @Test
+  public void round_ties_to_the_even_cent_like_DecimalFormat() {
+    double[] values = {0.005, 0.015, 0.025, 1.005, 1.115, 2.675, 0.125, -0.125, -0.001, 0, -0.0};
+
+    for (double value : values) {
+      assertSameAsLegacy(value);
+    }
+  }
+
+  @Test
+  public void round_millions_of_prices_like_DecimalFormat() {
+    Random random = new Random(42);
+
+    for (int i = 0; i < 1_000_000; i++) {
+      // Any price
+      assertSameAsLegacy(random.nextDouble() * 1000);
+      // Prices with 3 decimals, half of them exactly on the ".xx5" midpoints
+      assertSameAsLegacy(random.nextInt(100_000_000) / 1000.0);
+      assertSameAsLegacy((random.nextInt(2_000_000) - 1_000_000) / 100.0 + 0.005);
+    }
+  }
+
+  @Test
+  public void round_huge_and_tiny_values_like_DecimalFormat() {
+    Random random = new Random(42);
+
+    for (int i = 0; i < 1_000_000; i++) {
+      // From 2^40 to 2^56, across both limits used by PriceRounding
+      assertSameAsLegacy(Math.scalb(1 + random.nextDouble(), 40 + random.nextInt(16)));
+      assertSameAsLegacy(-Math.scalb(1 + random.nextDouble(), -random.nextInt(1000)));
+    }
+    assertSameAsLegacy(Double.MAX_VALUE);
+    assertSameAsLegacy(Double.MIN_VALUE);
+    assertSameAsLegacy(Double.NaN);
+  }
+
+  private void assertSameAsLegacy(double value) {
+    double expected = Double.parseDouble(LEGACY_FORMATTER.format(value));
+
+    assertEquals(expected, PriceRounding.toCents(value), "Rounding " + value);
+  }
+}
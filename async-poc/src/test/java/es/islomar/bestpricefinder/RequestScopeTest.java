@@ -0,0 +1,65 @@
+package es.islomar.bestpricefinder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RequestScopeTest {
+
+  private final RequestScope scope = new RequestScope();
+
+  @Test
+  public void cancel_the_tracked_futures() {
+    CompletableFuture<String> future = this.scope.track(new CompletableFuture<>());
+
+    this.scope.cancel();
+
+    assertTrue(future.isCancelled());
+    assertTrue(this.scope.track(new CompletableFuture<>()).isCancelled());
+  }
+
+  @Test
+  public void interrupt_the_running_tasks_and_give_their_thread_back_clean() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    CompletableFuture<String> sleeping =
+        CompletableFuture.supplyAsync(
+            this.scope.interruptible(
+                () -> {
+                  Util.delay(10_000L);
+                  return "too late";
+                }),
+            executor);
+    while (this.scope.getRunningTasks() == 0) {
+      Thread.sleep(10);
+    }
+
+    this.scope.cancel();
+
+    CompletionException failure = assertThrows(CompletionException.class, sleeping::join);
+    assertThat(failure.getCause(), instanceOf(CancellationException.class));
+    assertFalse(
+        CompletableFuture.supplyAsync(Thread.currentThread()::isInterrupted, executor)
+            .get(1, TimeUnit.SECONDS));
+    assertThat(this.scope.getRunningTasks(), is(0));
+    executor.shutdown();
+  }
+
+  @Test
+  public void not_run_the_tasks_of_a_cancelled_scope() {
+    this.scope.cancel();
+
+    assertThrows(
+        CancellationException.class, () -> this.scope.interruptible(() -> "never").get());
+  }
+}
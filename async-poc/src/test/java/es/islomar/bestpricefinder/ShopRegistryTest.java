@@ -0,0 +1,147 @@
+package es.islomar.bestpricefinder;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import es.islomar.bestpricefinder.model.DiscountCode;
+import es.islomar.bestpricefinder.model.LatencyProfile;
+import es.islomar.bestpricefinder.model.Shop;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ShopRegistryTest {
+
+  private Path file;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    this.file = Files.createTempFile("shops", ".bin");
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(this.file);
+  }
+
+  @Test
+  public void load_the_shops_with_their_profiles() throws IOException {
+    ShopRegistry.write(
+        this.file,
+        Arrays.asList(
+            new Shop("BestPrices"),
+            new Shop("LetsSaveBig", DiscountCode.GOLD, new LatencyProfile(10, 50)),
+            new Shop("Tienda Económica", DiscountCode.NONE, new LatencyProfile(0, 0))));
+
+    ShopRegistry shopRegistry = ShopRegistry.load(this.file);
+
+    assertThat(shopRegistry.size(), is(3));
+    assertThat(shopRegistry.getShop(0).getName(), is("BestPrices"));
+    assertThat(shopRegistry.getShop(0).getMaxDiscountCode(), is(DiscountCode.DIAMOND));
+    assertThat(shopRegistry.getShop(0).getLatencyProfile(), is(nullValue()));
+    Shop shop = shopRegistry.getShop(1);
+    assertThat(shop.getName(), is("LetsSaveBig"));
+    assertThat(shop.getMaxDiscountCode(), is(DiscountCode.GOLD));
+    assertThat(shop.getLatencyProfile().getMinMillis(), is(10));
+    assertThat(shop.getLatencyProfile().getMaxMillis(), is(50));
+    assertThat(shopRegistry.getShop(2).getName(), is("Tienda Económica"));
+  }
+
+  @Test
+  public void find_the_shops_by_name() throws IOException {
+    ShopRegistry.write(this.file, shops(200_000));
+
+    ShopRegistry shopRegistry = ShopRegistry.load(this.file);
+
+    assertThat(shopRegistry.size(), is(200_000));
+    for (int id = 0; id < 200_000; id += 997) {
+      assertThat(shopRegistry.idOf("Shop" + id), is(id));
+    }
+    assertThat(
+        shopRegistry.findShop("Shop123456").map(Shop::getName), is(Optional.of("Shop123456")));
+    assertThat(shopRegistry.idOf("Shop200000"), is(-1));
+    assertThat(shopRegistry.findShop("UnknownShop"), is(Optional.empty()));
+  }
+
+  @Test
+  public void give_the_same_discount_codes_as_the_original_shops() throws IOException {
+    List<Shop> shops = shops(100);
+    ShopRegistry.write(this.file, shops);
+
+    List<Shop> loadedShops = ShopRegistry.load(this.file).asList();
+
+    assertThat(loadedShops.size(), is(100));
+    for (int id = 0; id < 100; id++) {
+      assertThat(loadedShops.get(id).discountCodeFor(id), is(shops.get(id).discountCodeFor(id)));
+    }
+    // Not the same code for every shop, which would make the comparison above pointless
+    long codesOfTheSameRequest =
+        loadedShops.stream().map(shop -> shop.discountCodeFor(42)).distinct().count();
+    assertThat(codesOfTheSameRequest, is(greaterThan(1L)));
+  }
+
+  @Test
+  public void reject_duplicated_shop_names() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ShopRegistry.write(
+                this.file, Arrays.asList(new Shop("BestPrices"), new Shop("BestPrices"))));
+  }
+
+  @Test
+  public void reject_files_that_are_not_a_shop_registry() throws IOException {
+    Files.write(this.file, "BestPrices,LetsSaveBig".getBytes());
+
+    assertThrows(IOException.class, () -> ShopRegistry.load(this.file));
+  }
+
+  @Test
+  public void reject_a_truncated_registry() throws IOException {
+    ShopRegistry.write(this.file, shops(3));
+    byte[] bytes = Files.readAllBytes(this.file);
+    Files.write(this.file, Arrays.copyOf(bytes, bytes.length - 1));
+
+    assertThrows(IOException.class, () -> ShopRegistry.load(this.file));
+  }
+
+  @Test
+  public void reject_a_registry_with_more_shops_than_offsets() throws IOException {
+    ShopRegistry.write(this.file, shops(3));
+    byte[] bytes = Files.readAllBytes(this.file);
+    // Shop count of the header
+    ByteBuffer.wrap(bytes).putInt(2 * Integer.BYTES, Integer.MAX_VALUE);
+    Files.write(this.file, bytes);
+
+    assertThrows(IOException.class, () -> ShopRegistry.load(this.file));
+  }
+
+  @Test
+  public void reject_a_registry_with_a_record_offset_out_of_the_file() throws IOException {
+    ShopRegistry.write(this.file, shops(3));
+    byte[] bytes = Files.readAllBytes(this.file);
+    // Offset of the record of the second shop
+    ByteBuffer.wrap(bytes).putInt(4 * Integer.BYTES, bytes.length);
+    Files.write(this.file, bytes);
+
+    assertThrows(IOException.class, () -> ShopRegistry.load(this.file));
+  }
+
+  private static List<Shop> shops(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> new Shop("Shop" + i, DiscountCode.PLATINUM, new LatencyProfile(1, 5)))
+        .collect(toList());
+  }
+}
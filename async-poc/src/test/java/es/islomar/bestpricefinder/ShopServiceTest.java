@@ -1,18 +1,31 @@
 package es.islomar.bestpricefinder;
 
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import es.islomar.bestpricefinder.model.Quote;
+import es.islomar.bestpricefinder.model.Shop;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 
 public class ShopServiceTest {
 
+  private static final Executor EXECUTOR = Executors.newCachedThreadPool();
+
   @Test
   public void when_action_gets_completed_then_future_is_done()
       throws ExecutionException, InterruptedException {
@@ -72,6 +85,134 @@ public class ShopServiceTest {
     assertFalse(futurePrice.isCancelled());
   }
 
+  @Test
+  // Without interrupting the calculation, the only thread of the executor would stay busy for a
+  // whole second after the cancellation
+  public void cancelling_the_future_interrupts_the_calculation_and_frees_its_thread()
+      throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ShopService shopService = new ShopService(false, null, executor);
+    Future<Double> futurePrice = shopService.getPriceAsync("myPhone");
+    Thread.sleep(100);
+
+    futurePrice.cancel(true);
+
+    assertTrue(futurePrice.isCancelled());
+    assertThat(executor.submit(() -> "free").get(300, TimeUnit.MILLISECONDS), is("free"));
+    executor.shutdown();
+  }
+
+  @Test
+  public void concurrent_lookups_of_the_same_price_share_a_single_calculation() {
+    ShopService shopService = new ShopService();
+    Shop shop = new Shop("BestPrices");
+    long start = System.nanoTime();
+
+    List<CompletableFuture<String>> priceFutures =
+        IntStream.range(0, 10)
+            .mapToObj(
+                i ->
+                    CompletableFuture.supplyAsync(
+                        () -> shopService.getPriceWithDiscount("myPhone", shop), EXECUTOR))
+            .collect(toList());
+    List<Quote> quotes =
+        priceFutures.stream().map(CompletableFuture::join).map(Quote::parse).collect(toList());
+
+    logInvocationTime(start, "Prices returned after ");
+    assertThat(shopService.getCoalescedCalls(), is(9L));
+    quotes.forEach(quote -> assertThat(quote.getPrice(), is(quotes.get(0).getPrice())));
+  }
+
+  @Test
+  public void lookups_without_a_shop_are_not_coalesced() {
+    ShopService shopService = new ShopService();
+
+    List<CompletableFuture<Double>> priceFutures =
+        IntStream.range(0, 4)
+            .mapToObj(
+                i -> CompletableFuture.supplyAsync(() -> shopService.getPrice("myPhone"), EXECUTOR))
+            .collect(toList());
+    priceFutures.forEach(CompletableFuture::join);
+
+    assertThat(shopService.getCoalescedCalls(), is(0L));
+  }
+
+  @Test
+  public void a_lookup_waiting_for_a_coalesced_price_can_be_interrupted() throws Exception {
+    ShopService shopService = new ShopService();
+    Shop shop = new Shop("BestPrices");
+    CompletableFuture.runAsync(() -> shopService.getPriceWithDiscount("myPhone", shop), EXECUTOR);
+    Thread.sleep(100);
+    CompletableFuture<Throwable> failure = new CompletableFuture<>();
+    Thread waiter =
+        new Thread(
+            () -> {
+              try {
+                shopService.getPriceWithDiscount("myPhone", shop);
+                failure.complete(null);
+              } catch (RuntimeException e) {
+                failure.complete(e);
+              }
+            });
+    waiter.start();
+    while (shopService.getCoalescedCalls() == 0) {
+      Thread.sleep(10);
+    }
+
+    waiter.interrupt();
+
+    assertThat(
+        failure.get(300, TimeUnit.MILLISECONDS).getCause(), instanceOf(InterruptedException.class));
+  }
+
+  @Test
+  // The calculation runs in the only thread of the executor, the one of the lookup that started
+  // it: cancelling its query must interrupt it, as nobody else waits for its price
+  public void
+      a_coalesced_calculation_is_interrupted_when_the_query_of_its_last_lookup_is_cancelled()
+          throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    ShopService shopService = new ShopService();
+    RequestScope scope = new RequestScope();
+    CompletableFuture.supplyAsync(
+        scope.interruptible(
+            () -> shopService.getPriceWithDiscount("myPhone", new Shop("BestPrices"))),
+        executor);
+    Thread.sleep(100);
+
+    scope.cancel();
+
+    assertThat(executor.submit(() -> "free").get(300, TimeUnit.MILLISECONDS), is("free"));
+    executor.shutdown();
+  }
+
+  @Test
+  // The lookup that started the calculation keeps running it for the other lookup
+  public void cancelling_the_query_calculating_a_coalesced_price_does_not_fail_the_others()
+      throws Exception {
+    ShopService shopService = new ShopService();
+    Shop shop = new Shop("BestPrices");
+    RequestScope cancelledScope = new RequestScope();
+    RequestScope scope = new RequestScope();
+    CompletableFuture<String> cancelled =
+        CompletableFuture.supplyAsync(
+            cancelledScope.interruptible(() -> shopService.getPriceWithDiscount("myPhone", shop)),
+            EXECUTOR);
+    Thread.sleep(100);
+    CompletableFuture<String> price =
+        CompletableFuture.supplyAsync(
+            scope.interruptible(() -> shopService.getPriceWithDiscount("myPhone", shop)),
+            EXECUTOR);
+    while (shopService.getCoalescedCalls() == 0) {
+      Thread.sleep(10);
+    }
+
+    cancelledScope.cancel();
+
+    assertThat(Quote.parse(price.get(2, TimeUnit.SECONDS)).getShopName(), is("BestPrices"));
+    assertThat(Quote.parse(cancelled.get(2, TimeUnit.SECONDS)).getShopName(), is("BestPrices"));
+  }
+
   private void logInvocationTime(long start, String s) {
     long invocationTime = ((System.nanoTime() - start) / 1_000_000);
     System.out.println(s + invocationTime + " msecs");
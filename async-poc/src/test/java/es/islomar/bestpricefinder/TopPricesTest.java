@@ -0,0 +1,61 @@
+package es.islomar.bestpricefinder;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+import es.islomar.bestpricefinder.model.Shop;
+import es.islomar.bestpricefinder.model.ShopPrice;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class TopPricesTest {
+
+  private final List<Shop> shops =
+      IntStream.range(0, 1_000).mapToObj(i -> new Shop("Shop" + i)).collect(toList());
+
+  @Test
+  public void keep_the_k_lowest_prices_cheapest_first() {
+    double[] prices = new Random(42).doubles(1_000, 1, 1_000).toArray();
+    TopPrices topPrices = new TopPrices(10);
+
+    IntStream.range(0, prices.length).forEach(shopId -> topPrices.offer(shopId, prices[shopId]));
+
+    double[] expected = Arrays.stream(prices).sorted().limit(10).toArray();
+    List<ShopPrice> top = topPrices.toShopPrices(this.shops);
+    assertThat(top.stream().mapToDouble(ShopPrice::getPrice).toArray(), is(expected));
+    int cheapestShop =
+        IntStream.range(0, prices.length)
+            .filter(shopId -> prices[shopId] == expected[0])
+            .findFirst()
+            .getAsInt();
+    assertThat(top.get(0).getShopName(), is("Shop" + cheapestShop));
+  }
+
+  @Test
+  public void give_fewer_prices_when_fewer_shops_answered() {
+    TopPrices topPrices = new TopPrices(5);
+    topPrices.offer(3, 20.0);
+    topPrices.offer(7, 10.0);
+
+    List<ShopPrice> top = topPrices.toShopPrices(this.shops);
+
+    assertThat(top.size(), is(2));
+    assertThat(top.get(0).getShopName(), is("Shop7"));
+    assertThat(topPrices.areAllAtMost(100.0), is(false));
+  }
+
+  @Test
+  public void be_good_enough_once_the_k_prices_are_under_the_threshold() {
+    TopPrices topPrices = new TopPrices(2);
+    topPrices.offer(0, 50.0);
+    topPrices.offer(1, 150.0);
+
+    assertThat(topPrices.areAllAtMost(100.0), is(false));
+    topPrices.offer(2, 80.0);
+    assertThat(topPrices.areAllAtMost(100.0), is(true));
+  }
+}
@@ -0,0 +1,65 @@
+package es.islomar.bestpricefinder.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+
+import es.islomar.bestpricefinder.model.ShopResult.Status;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class QuoteBatchTest {
+
+  private final QuoteBatch batch =
+      new QuoteBatch(
+          Arrays.asList(
+              new Shop("BestPrices"), new Shop("LetsSaveBig"), new Shop("MyFavoriteShop")));
+
+  @Test
+  public void only_give_the_prices_of_the_shops_that_succeeded() {
+    this.batch.setPrice(0, 100.0, DiscountCode.GOLD);
+    this.batch.setStatus(0, Status.SUCCEEDED);
+    this.batch.setPrice(1, 50.0, DiscountCode.DIAMOND);
+    this.batch.setStatus(1, Status.FAILED);
+
+    assertThat(this.batch.price(0), is(100.0));
+    assertThat(this.batch.discountCode(0), is(DiscountCode.GOLD));
+    assertThat(this.batch.price(1), is(Double.NaN));
+    assertThat(this.batch.discountCode(1), is(nullValue()));
+    assertThat(this.batch.status(2), is(nullValue()));
+    assertThat(this.batch.prices().boxed().collect(Collectors.toList()), contains(100.0));
+  }
+
+  @Test
+  public void find_the_cheapest_shop_among_the_ones_that_succeeded() {
+    this.batch.setPrice(0, 100.0, DiscountCode.NONE);
+    this.batch.setPrice(1, 50.0, DiscountCode.NONE);
+    this.batch.setPrice(2, 80.0, DiscountCode.NONE);
+    this.batch.setStatus(0, Status.SUCCEEDED);
+    this.batch.setStatus(1, Status.TIMED_OUT);
+    this.batch.setStatus(2, Status.SUCCEEDED);
+
+    assertThat(this.batch.shopName(this.batch.indexOfCheapest()), is("MyFavoriteShop"));
+    assertThat(this.batch.count(Status.SUCCEEDED), is(2));
+    assertThat(this.batch.count(Status.TIMED_OUT), is(1));
+  }
+
+  @Test
+  public void convert_all_the_prices_at_once() {
+    this.batch.setPrice(0, 100.0, DiscountCode.NONE);
+    this.batch.setStatus(0, Status.SUCCEEDED);
+
+    this.batch.convert(1.5);
+
+    assertThat(this.batch.price(0), is(150.0));
+  }
+
+  @Test
+  public void have_no_cheapest_shop_if_none_succeeded() {
+    this.batch.setStatus(0, Status.FAILED);
+
+    assertThat(this.batch.indexOfCheapest(), is(-1));
+  }
+}
@@ -0,0 +1,53 @@
+package es.islomar.bestpricefinder.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class QuoteCodecTest {
+
+  private static final List<Shop> SHOPS =
+      Arrays.asList(new Shop("BestPrices"), new Shop("LetsSaveBig"), new Shop("MyFavoriteShop"));
+
+  @Test
+  public void decode_the_same_values_that_were_encoded() {
+    ByteBuffer quotes = QuoteCodec.allocate(SHOPS.size());
+
+    QuoteCodec.encode(quotes, 2, 123.456789, DiscountCode.PLATINUM);
+
+    assertThat(QuoteCodec.shopId(quotes, 2), is(2));
+    assertThat(QuoteCodec.price(quotes, 2), is(123.456789));
+    assertThat(QuoteCodec.discountCode(quotes, 2), is(DiscountCode.PLATINUM));
+  }
+
+  @Test
+  public void keep_every_shop_in_its_own_record() {
+    ByteBuffer quotes = QuoteCodec.allocate(SHOPS.size());
+
+    QuoteCodec.encode(quotes, 0, 1.5, DiscountCode.NONE);
+    QuoteCodec.encode(quotes, 1, 2.5, DiscountCode.SILVER);
+    QuoteCodec.encode(quotes, 2, 3.5, DiscountCode.DIAMOND);
+
+    assertThat(QuoteCodec.price(quotes, 0), is(1.5));
+    assertThat(QuoteCodec.discountCode(quotes, 1), is(DiscountCode.SILVER));
+    assertThat(QuoteCodec.price(quotes, 2), is(3.5));
+    assertThat(quotes.capacity(), is(3 * QuoteCodec.RECORD_SIZE));
+  }
+
+  @Test
+  public void decode_the_same_quote_as_the_text_format() {
+    ByteBuffer quotes = QuoteCodec.allocate(SHOPS.size());
+    QuoteCodec.encode(quotes, 1, 98.76, DiscountCode.GOLD);
+
+    Quote binaryQuote = QuoteCodec.decode(quotes, 1, SHOPS);
+    Quote textQuote = Quote.parse("LetsSaveBig:98.76:GOLD");
+
+    assertThat(binaryQuote.getShopName(), is(textQuote.getShopName()));
+    assertThat(binaryQuote.getPrice(), is(textQuote.getPrice()));
+    assertThat(binaryQuote.getDiscountCode(), is(textQuote.getDiscountCode()));
+  }
+}
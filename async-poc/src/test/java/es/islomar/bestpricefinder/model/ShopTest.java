@@ -0,0 +1,52 @@
+package es.islomar.bestpricefinder.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+
+public class ShopTest {
+
+  @Test
+  public void give_always_the_same_discount_code_for_the_same_request() {
+    Shop shop = new Shop("BestPrices");
+
+    for (long requestId = 0; requestId < 1_000; requestId++) {
+      assertThat(shop.discountCodeFor(requestId), is(shop.discountCodeFor(requestId)));
+      assertThat(
+          new Shop("BestPrices").discountCodeFor(requestId), is(shop.discountCodeFor(requestId)));
+    }
+  }
+
+  @Test
+  public void give_other_codes_than_a_shop_with_a_similar_name() {
+    Shop shop = new Shop("Shop1");
+    Shop otherShop = new Shop("Shop2");
+
+    long differentCodes =
+        LongStream.range(0, 100)
+            .filter(
+                requestId -> shop.discountCodeFor(requestId) != otherShop.discountCodeFor(requestId))
+            .count();
+
+    assertThat(differentCodes, is(greaterThan(50L)));
+  }
+
+  @Test
+  public void give_every_discount_code_as_often_as_the_others() {
+    Shop shop = new Shop("BestPrices");
+    int[] timesByCode = new int[DiscountCode.count()];
+
+    for (long requestId = 0; requestId < 100_000; requestId++) {
+      timesByCode[shop.discountCodeFor(requestId).ordinal()]++;
+    }
+
+    for (int times : timesByCode) {
+      assertThat(times, is(both(greaterThan(19_000)).and(lessThan(21_000))));
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package es.islomar.concurrent;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class HashedWheelTimerShould {
+
+  private static final int A_MILLION = 1_000_000;
+  private static final long MEGABYTE = 1024 * 1024;
+  // A pending timeout is a few small objects, a thread would be a stack of its own
+  private static final long MAX_BYTES_PER_PENDING_TIMEOUT = 256;
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private HashedWheelTimer timer;
+
+  @BeforeEach
+  public void setUp() {
+    this.timer = new HashedWheelTimer(Duration.ofMillis(10), 512);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    this.timer.stop();
+  }
+
+  @Test
+  public void run_a_task_after_its_delay() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+    long start = System.nanoTime();
+
+    this.timer.schedule(() -> future.complete("Hello"), 100, TimeUnit.MILLISECONDS);
+
+    assertThat(future.get(1, TimeUnit.SECONDS), is("Hello"));
+    assertThat(
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+        greaterThanOrEqualTo(100L));
+  }
+
+  @Test
+  public void not_run_a_cancelled_task() throws Exception {
+    CompletableFuture<String> future = new CompletableFuture<>();
+
+    HashedWheelTimer.Timeout timeout =
+        this.timer.schedule(() -> future.complete("Hello"), 100, TimeUnit.MILLISECONDS);
+    assertTrue(timeout.cancel());
+    Thread.sleep(300);
+
+    assertFalse(future.isDone());
+    assertThat(this.timer.pendingTimeouts(), is(0L));
+  }
+
+  @Test
+  public void report_the_failed_tasks_and_keep_running_the_others() throws Exception {
+    CompletableFuture<Throwable> failure = new CompletableFuture<>();
+    CompletableFuture<String> future = new CompletableFuture<>();
+    HashedWheelTimer timer =
+        new HashedWheelTimer(Duration.ofMillis(10), 512, (thread, e) -> failure.complete(e));
+
+    timer.schedule(
+        () -> {
+          throw new IllegalStateException("Broken task");
+        },
+        10,
+        TimeUnit.MILLISECONDS);
+    timer.schedule(() -> future.complete("Hello"), 100, TimeUnit.MILLISECONDS);
+
+    assertThat(failure.get(1, TimeUnit.SECONDS).getMessage(), is("Broken task"));
+    assertThat(future.get(1, TimeUnit.SECONDS), is("Hello"));
+    timer.stop();
+  }
+
+  @Test
+  public void keep_running_the_tasks_after_one_throws_an_error() throws Exception {
+    CompletableFuture<Throwable> failure = new CompletableFuture<>();
+    CompletableFuture<String> future = new CompletableFuture<>();
+    HashedWheelTimer timer =
+        new HashedWheelTimer(Duration.ofMillis(10), 512, (thread, e) -> failure.complete(e));
+
+    timer.schedule(
+        () -> {
+          throw new AssertionError("Broken callback");
+        },
+        10,
+        TimeUnit.MILLISECONDS);
+    timer.schedule(() -> future.complete("Hello"), 100, TimeUnit.MILLISECONDS);
+
+    assertThat(failure.get(1, TimeUnit.SECONDS), instanceOf(AssertionError.class));
+    assertThat(future.get(1, TimeUnit.SECONDS), is("Hello"));
+    timer.stop();
+  }
+
+  @Test
+  // A thread per pending completion would mean a million threads
+  public void complete_a_million_pending_futures_with_a_flat_thread_count_and_memory()
+      throws Exception {
+    long usedMemoryBefore = usedMemoryAfterGc();
+    int threadsBefore = this.threads.getThreadCount();
+    CountDownLatch completed = new CountDownLatch(A_MILLION);
+    Random random = new Random();
+
+    for (int i = 0; i < A_MILLION; i++) {
+      CompletableFuture<String> future = new CompletableFuture<>();
+      future.thenRun(completed::countDown);
+      // Long enough to schedule them all and sample the heap before the first one is due
+      this.timer.schedule(
+          () -> future.complete("done"), 5_000 + random.nextInt(1_000), TimeUnit.MILLISECONDS);
+    }
+    int threadsWhilePending = this.threads.getThreadCount();
+    long usedMemoryWhilePending = usedMemoryAfterGc();
+
+    assertThat(this.timer.pendingTimeouts(), is((long) A_MILLION));
+    assertThat(threadsWhilePending, lessThanOrEqualTo(threadsBefore));
+    assertThat(
+        usedMemoryWhilePending - usedMemoryBefore,
+        lessThan(A_MILLION * MAX_BYTES_PER_PENDING_TIMEOUT));
+    assertTrue(completed.await(30, TimeUnit.SECONDS));
+    assertThat(this.timer.pendingTimeouts(), is(0L));
+    assertThat(usedMemoryAfterGc() - usedMemoryBefore, lessThan(20 * MEGABYTE));
+  }
+
+  @Test
+  public void cancel_a_million_pending_timeouts_with_a_flat_thread_count_and_memory()
+      throws Exception {
+    long usedMemoryBefore = usedMemoryAfterGc();
+    int threadsBefore = this.threads.getThreadCount();
+    List<HashedWheelTimer.Timeout> timeouts = new ArrayList<>(A_MILLION);
+    for (int i = 0; i < A_MILLION; i++) {
+      timeouts.add(this.timer.schedule(() -> {}, 1, TimeUnit.HOURS));
+    }
+    int threadsWhilePending = this.threads.getThreadCount();
+    long usedMemoryWhilePending = usedMemoryAfterGc();
+
+    assertThat(this.timer.pendingTimeouts(), is((long) A_MILLION));
+    assertThat(threadsWhilePending, lessThanOrEqualTo(threadsBefore));
+    assertThat(
+        usedMemoryWhilePending - usedMemoryBefore,
+        lessThan(A_MILLION * MAX_BYTES_PER_PENDING_TIMEOUT));
+
+    timeouts.forEach(HashedWheelTimer.Timeout::cancel);
+    timeouts.clear();
+    Thread.sleep(200);
+
+    assertThat(this.threads.getThreadCount(), lessThanOrEqualTo(threadsBefore));
+    assertThat(this.timer.pendingTimeouts(), is(0L));
+    assertThat(usedMemoryAfterGc() - usedMemoryBefore, lessThan(20 * MEGABYTE));
+  }
+
+  private static long usedMemoryAfterGc() {
+    System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}